@@ -0,0 +1,100 @@
+package io.drakon.talon.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.objectweb.asm.Opcodes.ASM6;
+
+import io.drakon.talon.Talon;
+import io.drakon.talon.VisitorTransformer;
+import io.drakon.talon.transformers.DebugTransformer;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * End-to-end cost of loading every synthetic class through a fresh Talon classloader, i.e. bootstrap check, read,
+ * transform and define.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FindClassBenchmark {
+
+    @Param({"none", "legacy", "visitor", "debug"})
+    public String transformers;
+
+    private List<String> classNames;
+    private Talon talon;
+    private ClassLoader loader;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        classNames = SyntheticClasspath.classNames();
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() throws Exception {
+        talon = new Talon();
+        talon.addWhitelistedPackage(SyntheticClasspath.PACKAGE);
+        switch (transformers) {
+            case "legacy":
+                talon.addTransformer((className, pkgName, classBytes) -> null);
+                break;
+            case "visitor":
+                talon.addTransformer(new ReplacingTransformer());
+                break;
+            case "debug":
+                talon.addTransformer(new DebugTransformer());
+                break;
+            default:
+                break;
+        }
+        talon.start();
+        loader = talon.getClassLoader();
+    }
+
+    // Unregisters the metrics MBean and drops the loader, so earlier iterations don't pile up in later ones.
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() {
+        talon.close();
+        talon = null;
+        loader = null;
+    }
+
+    @Benchmark
+    public int loadAll() throws ClassNotFoundException {
+        int hash = 0;
+        for (String name : classNames) {
+            hash += loader.loadClass(name).hashCode();
+        }
+        return hash;
+    }
+
+    private static class ReplacingTransformer implements VisitorTransformer {
+        @Override
+        public ClassVisitor createVisitor(String className, String pkgName, ClassVisitor next) {
+            return new ClassVisitor(ASM6, next) {
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                    return new MethodVisitor(ASM6, super.visitMethod(access, name, descriptor, signature, exceptions)) {
+                        @Override
+                        public void visitLdcInsn(Object value) {
+                            super.visitLdcInsn("left".equals(value) ? "right" : value);
+                        }
+                    };
+                }
+            };
+        }
+
+        @Override
+        public int getWriterFlags() {
+            return ClassWriter.COMPUTE_FRAMES;
+        }
+    }
+
+}
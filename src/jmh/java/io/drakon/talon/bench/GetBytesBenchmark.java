@@ -0,0 +1,47 @@
+package io.drakon.talon.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.drakon.talon.internal.ClasspathIndex;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of reading class bytes from the classpath, via the classpath index and via the system classloader's resource
+ * lookup that the index replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetBytesBenchmark {
+
+    private String[] entries;
+    private int next;
+
+    @Setup
+    public void setup() {
+        List<String> names = SyntheticClasspath.entryNames();
+        entries = names.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public byte[] classpathIndex() throws IOException {
+        return ClasspathIndex.system().read(entries[next++ % entries.length]);
+    }
+
+    @Benchmark
+    public byte[] systemResource() throws IOException {
+        URL resource = ClassLoader.getSystemClassLoader().getResource(entries[next++ % entries.length]);
+        try (InputStream in = resource.openStream()) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+package io.drakon.talon.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.drakon.talon.internal.PackageMatcher;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cost of the whitelist/exclude decision made for every class load, against a configurable number of rules.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShouldTransformBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int rules;
+
+    @Param({"false", "true"})
+    public boolean globs;
+
+    private PackageMatcher matcher;
+    private String[] names;
+    private int next;
+
+    @Setup
+    public void setup() {
+        List<String> includes = new ArrayList<>();
+        for (int i = 0; i < rules - 1; i++) {
+            includes.add(globs && i % 10 == 0 ? "com.example.*.module" + i + "." : "com.example.module" + i + ".");
+        }
+        includes.add(SyntheticClasspath.PACKAGE + ".");
+        matcher = new PackageMatcher(includes, Collections.singletonList("com.example.module0.internal."));
+        names = SyntheticClasspath.classNames().toArray(new String[0]);
+    }
+
+    @Benchmark
+    public boolean matches() {
+        String name = names[next++ % names.length];
+        return matcher.matches(name);
+    }
+
+}
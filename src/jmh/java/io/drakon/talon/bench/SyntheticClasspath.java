@@ -0,0 +1,136 @@
+package io.drakon.talon.bench;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+
+/**
+ * Generates (and describes) the synthetic classpath the benchmarks load from. The jar is built by the
+ * <code>jmhClasspath</code> Gradle task and placed on the benchmark classpath, so it is visible to the system
+ * classloader just like a real application jar.
+ * <p>
+ * Classes form short inheritance chains and reference each other and some string constants, so transformers and
+ * {@link ClassWriter#COMPUTE_FRAMES} have realistic work to do.
+ */
+public final class SyntheticClasspath {
+
+    public static final String PACKAGE = "io.drakon.talon.bench.synthetic";
+    private static final String INTERNAL_PACKAGE = PACKAGE.replace('.', '/');
+    private static final String PROPERTIES = "io/drakon/talon/bench/synthetic.properties";
+    private static final int CHAIN_LENGTH = 8;
+
+    private SyntheticClasspath() {
+    }
+
+    /**
+     * Usage: <code>SyntheticClasspath &lt;output jar&gt; &lt;class count&gt;</code>
+     */
+    public static void main(String[] args) throws IOException {
+        File out = new File(args[0]);
+        int count = Integer.parseInt(args[1]);
+        if (!out.getParentFile().isDirectory() && !out.getParentFile().mkdirs()) {
+            throw new IOException("unable to create " + out.getParentFile());
+        }
+        try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(out))) {
+            Properties props = new Properties();
+            props.setProperty("count", Integer.toString(count));
+            jar.putNextEntry(new JarEntry(PROPERTIES));
+            props.store(jar, "Talon synthetic benchmark classpath");
+            for (int i = 0; i < count; i++) {
+                jar.putNextEntry(new JarEntry(INTERNAL_PACKAGE + "/" + simpleName(i) + ".class"));
+                jar.write(generate(i));
+            }
+        }
+    }
+
+    /**
+     * @return The full names of all generated classes, read from the jar on the classpath.
+     */
+    public static List<String> classNames() {
+        Properties props = new Properties();
+        try (InputStream in = ClassLoader.getSystemResourceAsStream(PROPERTIES)) {
+            if (in == null) {
+                throw new IllegalStateException("synthetic classpath missing; run via the jmh Gradle task");
+            }
+            props.load(in);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        int count = Integer.parseInt(props.getProperty("count"));
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(PACKAGE + "." + simpleName(i));
+        }
+        return names;
+    }
+
+    /**
+     * @return The class file entry names of all generated classes.
+     */
+    public static List<String> entryNames() {
+        List<String> names = new ArrayList<>();
+        for (String name : classNames()) {
+            names.add(name.replace('.', '/') + ".class");
+        }
+        return names;
+    }
+
+    private static String simpleName(int i) {
+        return "Synthetic" + i;
+    }
+
+    private static byte[] generate(int i) {
+        String name = INTERNAL_PACKAGE + "/" + simpleName(i);
+        String superName = i % CHAIN_LENGTH == 0 ? "java/lang/Object" : INTERNAL_PACKAGE + "/" + simpleName(i - 1);
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_SUPER, name, null, superName, new String[]{"java/lang/Runnable"});
+
+        MethodVisitor init = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, superName, "<init>", "()V", false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        MethodVisitor run = cw.visitMethod(ACC_PUBLIC, "run", "()V", null, null);
+        run.visitCode();
+        run.visitLdcInsn("hello from " + i);
+        run.visitMethodInsn(INVOKESTATIC, "java/lang/String", "valueOf", "(Ljava/lang/Object;)Ljava/lang/String;", false);
+        run.visitInsn(POP);
+        run.visitInsn(RETURN);
+        run.visitMaxs(0, 0);
+        run.visitEnd();
+
+        // A branchy method so frame computation has merges to resolve.
+        MethodVisitor pick = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "pick", "(Z)Ljava/lang/Object;", null, null);
+        pick.visitCode();
+        Label other = new Label();
+        Label done = new Label();
+        pick.visitVarInsn(ILOAD, 0);
+        pick.visitJumpInsn(IFEQ, other);
+        pick.visitLdcInsn("left");
+        pick.visitJumpInsn(GOTO, done);
+        pick.visitLabel(other);
+        pick.visitTypeInsn(NEW, "java/lang/StringBuilder");
+        pick.visitInsn(DUP);
+        pick.visitMethodInsn(INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V", false);
+        pick.visitLabel(done);
+        pick.visitInsn(ARETURN);
+        pick.visitMaxs(0, 0);
+        pick.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+}
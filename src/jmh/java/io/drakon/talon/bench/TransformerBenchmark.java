@@ -0,0 +1,58 @@
+package io.drakon.talon.bench;
+
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.drakon.talon.Transformer;
+import io.drakon.talon.internal.ClasspathIndex;
+import io.drakon.talon.internal.InstrumentationTransformer;
+import io.drakon.talon.transformers.DebugTransformer;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Per-class cost of the bundled transformers, run directly over synthetic class bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformerBenchmark {
+
+    private byte[][] classes;
+    private String[] simpleNames;
+    private int next;
+    private Transformer shim;
+    private Transformer debug;
+
+    @Setup
+    public void setup() throws IOException {
+        List<String> entries = SyntheticClasspath.entryNames();
+        classes = new byte[entries.size()][];
+        simpleNames = new String[entries.size()];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = ClasspathIndex.system().read(entries.get(i));
+            String entry = entries.get(i);
+            simpleNames[i] = entry.substring(entry.lastIndexOf('/') + 1, entry.length() - ".class".length());
+        }
+        ClassFileTransformer noop = (loader, className, classBeingRedefined, protectionDomain, classfileBuffer) -> null;
+        shim = new InstrumentationTransformer(noop, ClassLoader.getSystemClassLoader());
+        debug = new DebugTransformer();
+    }
+
+    @Benchmark
+    public byte[] instrumentationShim() {
+        int i = next++ % classes.length;
+        return shim.transform(simpleNames[i], SyntheticClasspath.PACKAGE, classes[i]);
+    }
+
+    @Benchmark
+    public byte[] debugTransformer() {
+        int i = next++ % classes.length;
+        return debug.transform(simpleNames[i], SyntheticClasspath.PACKAGE, classes[i]);
+    }
+
+}
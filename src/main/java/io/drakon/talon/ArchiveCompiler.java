@@ -0,0 +1,70 @@
+package io.drakon.talon;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+
+import org.apiguardian.api.API;
+
+/**
+ * Command-line entry point for transforming classes at build time, for deployments with a fixed set of transformers.
+ * <pre>
+ * ArchiveCompiler &lt;archive&gt; [--whitelist &lt;package&gt;]... [--exclude &lt;package&gt;]... --transformer &lt;class&gt;...
+ * </pre>
+ * Every class on the classpath in a whitelisted package (or not on the default blacklist, if there is no whitelist) is
+ * run through the transformers, in the order given, and written to the archive. Transformers are instantiated with
+ * their no-args constructor, and may implement either {@link Transformer} or {@link ClassFileTransformer}. Run it with
+ * the application's classpath, then pass the archive to {@link Talon#setClassArchive(File)} at runtime, with the same
+ * classpath, packages and transformers; every transformer needs a {@link Transformer#getFingerprint()} for the archive
+ * to be used.
+ *
+ * @see Talon#compileArchive(File)
+ */
+@API(status = API.Status.EXPERIMENTAL)
+public final class ArchiveCompiler {
+
+    private ArchiveCompiler() {}
+
+    public static void main(String[] args) throws IOException, ReflectiveOperationException {
+        if (args.length == 0 || args.length % 2 == 0) {
+            usage();
+        }
+        Talon talon = new Talon();
+        boolean hasTransformer = false;
+        for (int i = 1; i < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--whitelist":
+                    talon.addWhitelistedPackage(value);
+                    break;
+                case "--exclude":
+                    talon.addExcludedPackage(value);
+                    break;
+                case "--transformer":
+                    Object transformer = Class.forName(value).newInstance();
+                    if (transformer instanceof Transformer) {
+                        talon.addTransformer((Transformer) transformer);
+                    } else if (transformer instanceof ClassFileTransformer) {
+                        talon.addTransformer((ClassFileTransformer) transformer);
+                    } else {
+                        System.err.println("Not a transformer: " + value);
+                        System.exit(1);
+                    }
+                    hasTransformer = true;
+                    break;
+                default:
+                    usage();
+            }
+        }
+        if (!hasTransformer) {
+            usage();
+        }
+        talon.compileArchive(new File(args[0]));
+    }
+
+    private static void usage() {
+        System.err.println("Usage: ArchiveCompiler <archive> [--whitelist <package>]... [--exclude <package>]... --transformer <class>...");
+        System.exit(1);
+    }
+
+}
@@ -0,0 +1,45 @@
+package io.drakon.talon;
+
+import java.nio.ByteBuffer;
+
+import org.apiguardian.api.API;
+
+/**
+ * A {@link Transformer} which works on {@link ByteBuffer} views instead of arrays, to avoid copying large classes.
+ * <p>
+ * The input is a read-only view which may come straight from a memory-mapped jar. The output is written to a buffer
+ * from the {@link TransformOutput}, which Talon pools and passes on to the next transformer or directly to
+ * {@link ClassLoader#defineClass(String, ByteBuffer, java.security.ProtectionDomain)}. A chain made up only of
+ * buffer transformers (with no {@link Transformer#getInterest()}, caches or class dumping, which all need arrays)
+ * never copies the class onto the heap.
+ * <p>
+ * If used outside of Talon (e.g. called via {@link #transform(String, String, byte[])}), a buffer transformer behaves
+ * like any other transformer, at the cost of a copy on each side.
+ */
+@API(status = API.Status.EXPERIMENTAL)
+public interface BufferTransformer extends Transformer {
+
+    /**
+     * Transforms a class. The same threading caveats as {@link Transformer#transform(String, String, byte[])} apply.
+     *
+     * @param className  The class name to be transformed.
+     * @param pkgName    The package the class is within.
+     * @param classBytes A read-only view of the class bytes, between its position and limit.
+     * @param output     Where to get a buffer for the transformed class.
+     * @return The transformed class between the returned buffer's position and limit (usually a buffer from
+     * <code>output</code>, flipped), or null if no transformation was applied.
+     */
+    ByteBuffer transform(String className, String pkgName, ByteBuffer classBytes, TransformOutput output);
+
+    @Override
+    default byte[] transform(String className, String pkgName, byte[] classBytes) {
+        ByteBuffer out = transform(className, pkgName, ByteBuffer.wrap(classBytes).asReadOnlyBuffer(), ByteBuffer::allocate);
+        if (out == null) {
+            return null;
+        }
+        byte[] bytes = new byte[out.remaining()];
+        out.get(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,140 @@
+package io.drakon.talon;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apiguardian.api.API;
+
+/**
+ * Immutable index of the classes Talon considers for transformation: their superclasses, interfaces and annotations.
+ * Lets transformers answer questions like "all implementors of X" without scanning the classpath themselves.
+ * <p>
+ * Built in parallel when Talon starts if enabled with {@link Talon#enableClassIndex(java.io.File)}, and available from
+ * {@link Talon#getClassIndex()} or by implementing {@link ClassIndexAware}. All names are binary names, e.g.
+ * <code>java.lang.Runnable</code>. Only classes in whitelisted packages (or not on the blacklist, if there is no
+ * whitelist) are indexed, but their supertypes and annotations can be anything.
+ */
+@API(status = API.Status.EXPERIMENTAL)
+public final class ClassIndex {
+
+    private final Map<String, String> superclasses;
+    private final Map<String, List<String>> interfaces;
+    private final Map<String, List<String>> annotations;
+    private final Map<String, Set<String>> directSubtypes = new HashMap<>();
+    private final Map<String, Set<String>> annotated = new HashMap<>();
+    private final Map<String, Set<String>> subtypeClosures = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an index. Talon builds these itself; see {@link Talon#enableClassIndex(java.io.File)}.
+     *
+     * @param superclasses Each indexed class's superclass, or null for <code>java.lang.Object</code> and interfaces
+     *                     without one.
+     * @param interfaces   Each indexed class's directly implemented interfaces.
+     * @param annotations  Each indexed class's annotations.
+     */
+    public ClassIndex(Map<String, String> superclasses, Map<String, List<String>> interfaces, Map<String, List<String>> annotations) {
+        this.superclasses = Collections.unmodifiableMap(new HashMap<>(superclasses));
+        this.interfaces = Collections.unmodifiableMap(new HashMap<>(interfaces));
+        this.annotations = Collections.unmodifiableMap(new HashMap<>(annotations));
+        for (Map.Entry<String, String> entry : superclasses.entrySet()) {
+            if (entry.getValue() != null) {
+                directSubtypes.computeIfAbsent(entry.getValue(), it -> new TreeSet<>()).add(entry.getKey());
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : interfaces.entrySet()) {
+            for (String iface : entry.getValue()) {
+                directSubtypes.computeIfAbsent(iface, it -> new TreeSet<>()).add(entry.getKey());
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : annotations.entrySet()) {
+            for (String annotation : entry.getValue()) {
+                annotated.computeIfAbsent(annotation, it -> new TreeSet<>()).add(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * @return The names of all indexed classes.
+     */
+    public Set<String> getClasses() {
+        return superclasses.keySet();
+    }
+
+    /**
+     * @param className An indexed class.
+     * @return True if the class is in the index.
+     */
+    public boolean contains(String className) {
+        return superclasses.containsKey(className);
+    }
+
+    /**
+     * @param className An indexed class.
+     * @return The class's direct superclass, or null if it has none or isn't indexed.
+     */
+    public String getSuperclass(String className) {
+        return superclasses.get(className);
+    }
+
+    /**
+     * @param className An indexed class.
+     * @return The interfaces the class directly implements (or extends, for an interface).
+     */
+    public List<String> getInterfaces(String className) {
+        return interfaces.getOrDefault(className, Collections.emptyList());
+    }
+
+    /**
+     * @param className An indexed class.
+     * @return The annotations on the class, both runtime-visible and class-retention.
+     */
+    public List<String> getAnnotations(String className) {
+        return annotations.getOrDefault(className, Collections.emptyList());
+    }
+
+    /**
+     * @param annotation An annotation type.
+     * @return The indexed classes directly annotated with it.
+     */
+    public Set<String> getAnnotatedWith(String annotation) {
+        return Collections.unmodifiableSet(annotated.getOrDefault(annotation, Collections.emptySet()));
+    }
+
+    /**
+     * @param type A class or interface, indexed or not.
+     * @return The indexed classes which directly extend or implement it.
+     */
+    public Set<String> getDirectSubtypes(String type) {
+        return Collections.unmodifiableSet(directSubtypes.getOrDefault(type, Collections.emptySet()));
+    }
+
+    /**
+     * @param type A class or interface, indexed or not.
+     * @return The indexed classes which extend or implement it, directly or indirectly.
+     */
+    public Set<String> getSubtypes(String type) {
+        return subtypeClosures.computeIfAbsent(type, key -> {
+            Set<String> closure = new TreeSet<>();
+            Deque<String> pending = new ArrayDeque<>();
+            pending.add(key);
+            while (!pending.isEmpty()) {
+                for (String subtype : directSubtypes.getOrDefault(pending.poll(), Collections.emptySet())) {
+                    if (closure.add(subtype)) {
+                        pending.add(subtype);
+                    }
+                }
+            }
+            return Collections.unmodifiableSet(closure);
+        });
+    }
+
+    /**
+     * @param className An indexed class.
+     * @param type      A class or interface.
+     * @return True if the class is the type, or extends or implements it through indexed classes.
+     */
+    public boolean isSubtypeOf(String className, String type) {
+        return className.equals(type) || getSubtypes(type).contains(className);
+    }
+
+}
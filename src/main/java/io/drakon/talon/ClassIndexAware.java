@@ -0,0 +1,20 @@
+package io.drakon.talon;
+
+import org.apiguardian.api.API;
+
+/**
+ * Implemented by {@link Transformer}s which want the {@link ClassIndex}. If any registered transformer implements
+ * this, Talon builds the index on start even if {@link Talon#enableClassIndex(java.io.File)} wasn't called, and hands
+ * it over before any classes are loaded.
+ */
+@API(status = API.Status.EXPERIMENTAL)
+public interface ClassIndexAware {
+
+    /**
+     * Called once when Talon starts, before any class is transformed.
+     *
+     * @param index The class index.
+     */
+    void setClassIndex(ClassIndex index);
+
+}
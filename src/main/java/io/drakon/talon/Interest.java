@@ -0,0 +1,104 @@
+package io.drakon.talon;
+
+import java.util.Set;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+import lombok.ToString;
+import org.apiguardian.api.API;
+
+/**
+ * Declares which classes a {@link Transformer} wants to see, returned from {@link Transformer#getInterest()}. Talon
+ * compiles the interests of all registered transformers into a dispatch index, and only invokes a transformer on
+ * classes which match at least one of its selectors.
+ * <p>
+ * Transformers can additionally declare symbols which a class must reference for the transformer to have anything to
+ * do, such as a string constant or a method owner. Talon checks these with a cheap scan of the class's constant pool
+ * before anything else, and skips the transformer for classes which reference none of them.
+ * <p>
+ * All names use the standard Java notation (e.g. <code>io.drakon.talon.Talon</code>). An interest with no selectors
+ * matches every class, subject to any referenced symbols.
+ * <pre>{@code
+ * Interest.builder()
+ *         .packagePrefix("com.example.service")
+ *         .subtypeOf("java.lang.Runnable")
+ *         .referencedMember("java.util.concurrent.Executor#execute")
+ *         .build();
+ * }</pre>
+ */
+@Getter
+@Builder
+@ToString
+@API(status = API.Status.EXPERIMENTAL)
+public final class Interest {
+
+    /**
+     * Exact class names.
+     */
+    @Singular
+    private final Set<String> classNames;
+
+    /**
+     * Packages, including all of their subpackages, with an optional trailing '.'
+     */
+    @Singular
+    private final Set<String> packagePrefixes;
+
+    /**
+     * Glob patterns over the full class name. <code>*</code> matches within a single name segment, <code>**</code>
+     * matches across segments, and <code>?</code> matches a single character (e.g. <code>com.example.**.*Impl</code>).
+     */
+    @Singular
+    private final Set<String> classPatterns;
+
+    /**
+     * Names of a class's direct superclass or directly implemented interfaces. Inherited supertypes are not considered,
+     * as that would require loading the hierarchy.
+     */
+    @Singular("subtypeOf")
+    private final Set<String> supertypes;
+
+    /**
+     * Names of annotation types present directly on the class.
+     */
+    @Singular("annotatedWith")
+    private final Set<String> annotations;
+
+    /**
+     * String constants (e.g. loaded with <code>ldc</code>). Also matches any other constant pool entry with the same
+     * text, so this is a prefilter rather than an exact test.
+     */
+    @Singular
+    private final Set<String> referencedStrings;
+
+    /**
+     * Names of classes the class refers to via a class constant, e.g. as the owner of an invoked method or accessed
+     * field, or as the subject of <code>new</code>, <code>checkcast</code> or <code>instanceof</code>.
+     */
+    @Singular
+    private final Set<String> referencedClasses;
+
+    /**
+     * Fields or methods the class refers to, written as <code>owner#name</code> (e.g.
+     * <code>java.util.concurrent.Executor#execute</code>). All overloads of the name match.
+     */
+    @Singular
+    private final Set<String> referencedMembers;
+
+    /**
+     * @return True if no selectors are set, meaning every class matches before referenced symbols are considered.
+     */
+    public boolean hasNoSelectors() {
+        return classNames.isEmpty() && packagePrefixes.isEmpty() && classPatterns.isEmpty() && supertypes.isEmpty()
+                && annotations.isEmpty();
+    }
+
+    /**
+     * @return True if any referenced symbols are declared.
+     */
+    public boolean hasReferencedSymbols() {
+        return !referencedStrings.isEmpty() || !referencedClasses.isEmpty() || !referencedMembers.isEmpty();
+    }
+
+}
@@ -0,0 +1,176 @@
+package io.drakon.talon;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apiguardian.api.API;
+
+/**
+ * Watches a closed Talon classloader, to check that it can actually be unloaded.
+ * <p>
+ * Only a weak reference to the loader is held, so watching doesn't keep it alive. If the loader doesn't become
+ * unreachable, {@link #findSuspects()} looks through the places JVM-wide state commonly pins a loader (live threads and
+ * their context classloaders, MBeans, security providers, logging handlers and the default uncaught exception handler)
+ * for anything belonging to it. A heap dump is the only way to find every path to the loader, but these cover most
+ * leaks in practice.
+ *
+ * @see Talon#close()
+ */
+@Slf4j
+@API(status = API.Status.EXPERIMENTAL)
+public final class LeakDetector {
+
+    private final WeakReference<ClassLoader> loader;
+    private final String description;
+
+    private LeakDetector(ClassLoader loader) {
+        this.loader = new WeakReference<>(loader);
+        this.description = loader.toString();
+    }
+
+    /**
+     * Starts watching a loader.
+     *
+     * @param loader The loader, which should have been closed or otherwise discarded.
+     * @return The detector.
+     */
+    public static LeakDetector watch(ClassLoader loader) {
+        return new LeakDetector(loader);
+    }
+
+    /**
+     * @return True if the loader has been garbage collected.
+     */
+    public boolean isUnloaded() {
+        return loader.get() == null;
+    }
+
+    /**
+     * Waits for the loader to be garbage collected, requesting collections while waiting. As collection can't be forced,
+     * a false result after a short timeout doesn't prove a leak, but a long one is a good sign of one.
+     *
+     * @param timeout How long to wait.
+     * @param unit    The unit of the timeout.
+     * @return True if the loader was collected within the timeout.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitUnloaded(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isUnloaded()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            System.gc();
+            Thread.sleep(20);
+        }
+        return true;
+    }
+
+    /**
+     * Looks for JVM-wide state which refers to the loader or classes it defined.
+     *
+     * @return A description of each suspect found, or an empty list if none were found or the loader has already been
+     * collected.
+     */
+    public List<String> findSuspects() {
+        List<String> suspects = new ArrayList<>();
+        ClassLoader target = loader.get();
+        if (target == null) {
+            return suspects;
+        }
+
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (definedBy(thread.getClass(), target)) {
+                suspects.add("Thread " + thread.getName() + " is an instance of " + thread.getClass().getName());
+            } else if (isOrChildOf(thread.getContextClassLoader(), target)) {
+                suspects.add("Thread " + thread.getName() + " has the loader as its context classloader");
+            }
+        }
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : server.queryNames(null, null)) {
+            try {
+                if (isOrChildOf(server.getClassLoaderFor(name), target)) {
+                    suspects.add("MBean " + name + " was registered from the loader");
+                }
+            } catch (InstanceNotFoundException ex) {
+                // Unregistered while we were looking.
+            }
+        }
+
+        for (Provider provider : Security.getProviders()) {
+            if (definedBy(provider.getClass(), target)) {
+                suspects.add("Security provider " + provider.getName() + " is an instance of " + provider.getClass().getName());
+            }
+        }
+
+        LogManager logManager = LogManager.getLogManager();
+        Enumeration<String> loggers = logManager.getLoggerNames();
+        while (loggers.hasMoreElements()) {
+            String loggerName = loggers.nextElement();
+            Logger logger = logManager.getLogger(loggerName);
+            if (logger == null) {
+                continue;
+            }
+            for (Handler handler : logger.getHandlers()) {
+                if (definedBy(handler.getClass(), target)) {
+                    suspects.add("Logger '" + loggerName + "' has handler " + handler.getClass().getName());
+                }
+            }
+        }
+
+        Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+        if (handler != null && definedBy(handler.getClass(), target)) {
+            suspects.add("Default uncaught exception handler is an instance of " + handler.getClass().getName());
+        }
+        return suspects;
+    }
+
+    /**
+     * Waits for the loader to be collected, and logs any suspects if it isn't.
+     *
+     * @param timeout How long to wait.
+     * @param unit    The unit of the timeout.
+     * @return True if the loader was collected within the timeout.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean check(long timeout, TimeUnit unit) throws InterruptedException {
+        if (awaitUnloaded(timeout, unit)) {
+            return true;
+        }
+        List<String> suspects = findSuspects();
+        if (suspects.isEmpty()) {
+            log.warn("{} is still reachable after being closed, but no known suspects refer to it; take a heap dump to find out why.", description);
+        } else {
+            log.warn("{} is still reachable after being closed. Suspects:\n  {}", description, String.join("\n  ", suspects));
+        }
+        return false;
+    }
+
+    private static boolean definedBy(Class<?> clazz, ClassLoader target) {
+        return isOrChildOf(clazz.getClassLoader(), target);
+    }
+
+    private static boolean isOrChildOf(ClassLoader loader, ClassLoader target) {
+        for (ClassLoader current = loader; current != null; current = current.getParent()) {
+            if (current == target) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,27 @@
+package io.drakon.talon;
+
+import org.apiguardian.api.API;
+
+/**
+ * When Talon should eagerly load every class it would consider for transformation. See
+ * {@link Talon#setPreloadMode(PreloadMode)}.
+ */
+@API(status = API.Status.EXPERIMENTAL)
+public enum PreloadMode {
+
+    /**
+     * Classes are only loaded on demand. This is the default.
+     */
+    NONE,
+
+    /**
+     * Classes are preloaded in {@link Talon#start()} before the target is invoked.
+     */
+    BEFORE_TARGET,
+
+    /**
+     * Classes are preloaded in the background while the target runs.
+     */
+    CONCURRENT
+
+}
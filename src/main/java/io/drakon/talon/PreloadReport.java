@@ -0,0 +1,42 @@
+package io.drakon.talon;
+
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import org.apiguardian.api.API;
+
+/**
+ * Summary of an eager preload, as started by {@link Talon#setPreloadMode(PreloadMode)}.
+ * <p>
+ * Phase times are wall-clock; per-package times are summed across all preload threads, so they show where the work
+ * went rather than how long it took.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+@API(status = API.Status.EXPERIMENTAL)
+public class PreloadReport {
+
+    private final int classes;
+    private final int failures;
+    private final long totalNanos;
+    private final long prepareNanos;
+    private final long defineNanos;
+    private final Map<String, PackageStats> packages;
+
+    /**
+     * Preload statistics for a single package.
+     */
+    @Getter
+    @ToString
+    @AllArgsConstructor
+    public static class PackageStats {
+        private final int classes;
+        private final int failures;
+        private final long prepareNanos;
+        private final long defineNanos;
+    }
+
+}
@@ -1,15 +1,33 @@
 package io.drakon.talon;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.instrument.ClassFileTransformer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
+import io.drakon.talon.cache.TransformCache;
+import io.drakon.talon.internal.AppCds;
+import io.drakon.talon.internal.ClassArchive;
+import io.drakon.talon.internal.ClassLoadProfile;
 import io.drakon.talon.internal.InstrumentationTransformer;
+import io.drakon.talon.internal.ResidentProxies;
 import io.drakon.talon.internal.TalonClassLoader;
+import io.drakon.talon.internal.Threads;
 import lombok.extern.slf4j.Slf4j;
 import org.apiguardian.api.API;
 
@@ -23,7 +41,9 @@ import org.apiguardian.api.API;
  */
 @Slf4j
 @API(status = API.Status.EXPERIMENTAL)
-public class Talon {
+public class Talon implements AutoCloseable {
+
+    private static final AtomicInteger INSTANCE_IDS = new AtomicInteger();
 
     private final String targetClass;
     private final boolean isStatic;
@@ -31,10 +51,31 @@ public class Talon {
     private final Object[] args;
     private boolean started = false;
     private ClassLoader classLoader = null;
+    private ObjectName metricsName = null;
+    private File profileRecordFile = null;
+    private File profileReplayFile = null;
+    private ClassLoadProfile profile = null;
+    private boolean speculativePrefetch = false;
+    private PreloadMode preloadMode = PreloadMode.NONE;
+    private CompletableFuture<PreloadReport> preloadReport = null;
+    private boolean classIndexEnabled = false;
+    private File classIndexFile = null;
+    private ClassIndex classIndex = null;
+    private File classArchiveFile = null;
+    private File cdsDir = null;
+    private File cdsTrainingDir = null;
+    private AppCds.Training cdsTraining = null;
+    private boolean closed = false;
+    private LeakDetector leakDetector = null;
+    private ResidentProxies residentProxies = null;
+    private final List<Thread> shutdownHooks = new ArrayList<>();
 
     private Set<String> packageWhitelist = Collections.synchronizedSet(new HashSet<>());
+    private Set<String> packageExcludes = Collections.synchronizedSet(new HashSet<>());
+    private Set<String> packageParentFirst = Collections.synchronizedSet(new HashSet<>());
     private List<Transformer> transformers = new LinkedList<>();
     private List<Function<ClassLoader, Transformer>> pendingTransformers = new LinkedList<>();
+    private List<TransformCache> transformCaches = new LinkedList<>();
 
     /**
      * Whether or not this Talon manager has been started. If this is {@literal true} then no more changes can be made
@@ -48,7 +89,7 @@ public class Talon {
 
     /**
      * The Talon class loader. Use this if you need to manually load a class in the new class loader. Will be null
-     * before {@link #start()} is called.
+     * before {@link #start()} is called, and after {@link #close()}.
      *
      * @return The Talon classloader if available, {@literal null} if Talon has not started yet.
      */
@@ -56,6 +97,16 @@ public class Talon {
         return classLoader;
     }
 
+    /**
+     * The JMX name of this Talon manager's metrics MBean, which reports per-phase classloading times and per-transformer
+     * statistics. Will be null before {@link #start()} is called, after {@link #close()}, or if registration failed.
+     *
+     * @return The metrics MBean name if registered, {@literal null} otherwise.
+     */
+    public ObjectName getMetricsName() {
+        return metricsName;
+    }
+
     /**
      * Construct a new Talon manager, which uses a <i>main(String[])</i> method as a target.
      *
@@ -121,7 +172,25 @@ public class Talon {
         }
         started = true;
         log.debug("Starting Talon.");
-        classLoader = new TalonClassLoader(packageWhitelist.isEmpty() ? null : packageWhitelist, transformers, pendingTransformers);
+        TalonClassLoader talonLoader = new TalonClassLoader(packageWhitelist.isEmpty() ? null : packageWhitelist, packageExcludes, packageParentFirst,
+                transformers, pendingTransformers, transformCaches);
+        classLoader = talonLoader;
+        residentProxies = new ResidentProxies(talonLoader);
+        if (classArchiveFile != null) {
+            try {
+                talonLoader.useArchive(ClassArchive.open(classArchiveFile));
+            } catch (IOException ex) {
+                log.warn("Unable to open class archive {}; classes will be transformed at runtime.", classArchiveFile, ex);
+            }
+        }
+        startCds(talonLoader);
+        registerMetrics(talonLoader);
+        buildClassIndex(talonLoader);
+        startProfiling(talonLoader);
+        if (speculativePrefetch) {
+            talonLoader.startPrefetching();
+        }
+        startPreload(talonLoader);
 
         log.info("Talon started. Using {} whitelist, {} transformers registered.",
                 packageWhitelist.isEmpty() ? "empty" : "size " + packageWhitelist.size(),
@@ -176,6 +245,262 @@ public class Talon {
         return method.invoke(target, args);
     }
 
+    /**
+     * Resolves a method inside Talon's classloader once, for calling repeatedly from outside it. Unlike the target
+     * invoked by {@link #start()}, the handle doesn't go through reflection on each call; holding it in a
+     * <code>static final</code> field and calling it with {@link MethodHandle#invokeExact(Object...)} lets the JIT
+     * inline the call as if it were direct.
+     * <p>
+     * If the method isn't static, an instance is constructed using a no-args constructor and bound to the handle, so the
+     * handle's type is always exactly <code>type</code>. Every type in <code>type</code> must be the same class inside
+     * Talon as outside, so must come from the JDK or a parent-first package (see {@link #addParentFirstPackage(String)}).
+     *
+     * @param targetClass  The class containing the method, which is loaded by Talon.
+     * @param targetMethod The name of the method, which must be public.
+     * @param isStatic     Whether the method is static.
+     * @param type         The exact type of the method.
+     * @return A handle for the method.
+     * @throws ClassNotFoundException   if no matching class exists
+     * @throws NoSuchMethodException    if the class has no public method with that name and type
+     * @throws IllegalAccessException   if the class or method was inaccessible to Talon
+     * @throws InstantiationException   if the method is not static but an instance couldn't be constructed
+     * @throws IllegalArgumentException if a type in <code>type</code> isn't shared with Talon's classloader
+     * @throws IllegalStateException    if Talon hasn't started, or has been closed
+     */
+    public MethodHandle resolve(String targetClass, String targetMethod, boolean isStatic, MethodType type) throws ClassNotFoundException, NoSuchMethodException, IllegalAccessException, InstantiationException {
+        ResidentProxies proxies = getResidentProxies();
+        proxies.checkShared(type.returnType());
+        for (Class<?> param : type.parameterList()) {
+            proxies.checkShared(param);
+        }
+        Class<?> clazz = classLoader.loadClass(targetClass);
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        if (isStatic) {
+            return lookup.findStatic(clazz, targetMethod, type);
+        }
+        return lookup.findVirtual(clazz, targetMethod, type).bindTo(clazz.newInstance());
+    }
+
+    /**
+     * Constructs an instance of a class inside Talon's classloader, for calling repeatedly from outside it through an
+     * interface. The class is constructed using a no-args constructor.
+     * <p>
+     * If the interface's package is parent-first (see {@link #addParentFirstPackage(String)}) and the class implements
+     * it, the instance itself is returned and calls on it are direct. Otherwise the class only needs public methods
+     * with the same names and parameters as the interface's, and a proxy class is generated (once per interface and
+     * class) which calls them without reflection or boxing. Every type in the interface's method signatures must be
+     * the same class inside Talon as outside.
+     *
+     * @param iface       A public interface from outside Talon.
+     * @param targetClass The class to construct, which is loaded by Talon.
+     * @param <T>         The interface type.
+     * @return The instance, or a proxy forwarding to it.
+     * @throws ClassNotFoundException   if no matching class exists
+     * @throws IllegalAccessException   if the class or its constructor was inaccessible to Talon
+     * @throws InstantiationException   if an instance couldn't be constructed
+     * @throws IllegalArgumentException if the class has no matching public method for an interface method, or the
+     *                                  interface uses types which aren't shared with Talon's classloader
+     * @throws IllegalStateException    if Talon hasn't started, or has been closed
+     */
+    public <T> T newResidentInstance(Class<T> iface, String targetClass) throws ClassNotFoundException, IllegalAccessException, InstantiationException {
+        ResidentProxies proxies = getResidentProxies();
+        return proxies.wrap(iface, classLoader.loadClass(targetClass).newInstance());
+    }
+
+    private ResidentProxies getResidentProxies() {
+        if (closed) {
+            throw new IllegalStateException("Talon instance has been closed.");
+        }
+        if (residentProxies == null) {
+            throw new IllegalStateException("Talon instance has not been started.");
+        }
+        return residentProxies;
+    }
+
+    /**
+     * Transforms every class Talon would consider for transformation ahead of time, instead of starting, and writes
+     * them to an archive for {@link #setClassArchive(File)}. Classes are transformed in parallel on a fork-join pool
+     * with one thread per processor by default (see <code>-Dtalon.archiveThreads</code>), but nothing is defined or
+     * invoked. Transform caches aren't used.
+     * <p>
+     * This counts as starting Talon, so it can only be done once and the target is never invoked. See
+     * {@link ArchiveCompiler} for doing this from the command line.
+     *
+     * @param file The archive file to write.
+     * @return The number of classes written to the archive.
+     * @throws IOException             if the archive could not be written.
+     * @throws AlreadyStartedException if Talon has already been started once.
+     */
+    public int compileArchive(File file) throws IOException {
+        if (started) {
+            throw new AlreadyStartedException();
+        }
+        started = true;
+        TalonClassLoader talonLoader = new TalonClassLoader(packageWhitelist.isEmpty() ? null : packageWhitelist, packageExcludes, packageParentFirst,
+                transformers, pendingTransformers, Collections.emptyList());
+        classLoader = talonLoader;
+        buildClassIndex(talonLoader);
+        int parallelism = Math.max(1, Integer.getInteger("talon.archiveThreads", Runtime.getRuntime().availableProcessors()));
+        return talonLoader.compileArchive(file, parallelism);
+    }
+
+    private void buildClassIndex(TalonClassLoader talonLoader) {
+        List<ClassIndexAware> aware = transformers.stream()
+                .filter(it -> it instanceof ClassIndexAware)
+                .map(it -> (ClassIndexAware) it)
+                .collect(Collectors.toList());
+        if (!classIndexEnabled && aware.isEmpty()) {
+            return;
+        }
+        int parallelism = Math.max(1, Integer.getInteger("talon.indexThreads", Runtime.getRuntime().availableProcessors()));
+        classIndex = talonLoader.buildClassIndex(classIndexFile, parallelism);
+        aware.forEach(it -> it.setClassIndex(classIndex));
+    }
+
+    private void startProfiling(TalonClassLoader talonLoader) {
+        if (profileReplayFile != null) {
+            if (profileReplayFile.isFile()) {
+                try {
+                    talonLoader.replay(ClassLoadProfile.read(profileReplayFile));
+                } catch (IOException ex) {
+                    log.warn("Unable to read class-load profile {}; classes will be loaded on demand.", profileReplayFile, ex);
+                }
+            } else {
+                log.info("No class-load profile at {} yet; classes will be loaded on demand.", profileReplayFile);
+            }
+        }
+        if (profileRecordFile != null) {
+            profile = talonLoader.startRecording();
+            addShutdownHook(this::writeProfile, "talon-profile-writer");
+        }
+    }
+
+    private void startCds(TalonClassLoader talonLoader) {
+        if (cdsDir != null && talonLoader.useCdsClasses(cdsDir)) {
+            log.info("Defining recorded classes from {} for AppCDS.", cdsDir);
+        }
+        if (cdsTrainingDir != null) {
+            cdsTraining = talonLoader.startCdsTraining(cdsTrainingDir);
+            addShutdownHook(this::writeCdsTraining, "talon-appcds-writer");
+        }
+    }
+
+    private void addShutdownHook(Runnable hook, String name) {
+        Thread thread = Threads.daemon(hook, name);
+        Runtime.getRuntime().addShutdownHook(thread);
+        shutdownHooks.add(thread);
+    }
+
+    private void writeProfile() {
+        try {
+            saveProfile();
+        } catch (IOException ex) {
+            log.error("Unable to save class-load profile to {}", profileRecordFile, ex);
+        }
+    }
+
+    private void writeCdsTraining() {
+        try {
+            saveCdsTraining();
+        } catch (IOException ex) {
+            log.error("Unable to save AppCDS training output to {}", cdsTrainingDir, ex);
+        }
+    }
+
+    private void startPreload(TalonClassLoader talonLoader) {
+        if (preloadMode == PreloadMode.NONE) {
+            return;
+        }
+        int parallelism = Math.max(1, Integer.getInteger("talon.preloadThreads", Runtime.getRuntime().availableProcessors()));
+        Supplier<PreloadReport> preload = () -> {
+            PreloadReport report = talonLoader.preload(parallelism);
+            log.info("Preloaded {} classes ({} failed) in {}ms.", report.getClasses(), report.getFailures(),
+                    TimeUnit.NANOSECONDS.toMillis(report.getTotalNanos()));
+            return report;
+        };
+        if (preloadMode == PreloadMode.BEFORE_TARGET) {
+            preloadReport = CompletableFuture.completedFuture(preload.get());
+        } else {
+            preloadReport = CompletableFuture.supplyAsync(preload, runnable -> Threads.daemon(runnable, "talon-preload").start());
+        }
+    }
+
+    private void registerMetrics(TalonClassLoader talonLoader) {
+        try {
+            ObjectName name = new ObjectName("io.drakon.talon:type=TalonClassLoader,id=" + INSTANCE_IDS.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(talonLoader.getMetrics(), name);
+            metricsName = name;
+        } catch (JMException | SecurityException ex) {
+            log.warn("Unable to register Talon metrics MBean; metrics will not be available over JMX.", ex);
+        }
+    }
+
+    /**
+     * Closes this Talon manager, so that its classloader and every class it defined can be garbage collected once the
+     * application no longer refers to them.
+     * <p>
+     * Any class-load profile or AppCDS training output is written out, and the shutdown hooks which would have written
+     * them are removed. Background replay, prefetch and preload threads are stopped, the metrics MBean is unregistered,
+     * and the classloader's caches and all references to transformers and transform caches are dropped. Classes already
+     * loaded keep working, but no new classes can be loaded. Closing a manager which hasn't started prevents it from
+     * starting. Closing more than once has no further effect.
+     * <p>
+     * Nothing can make the application's own references go away, e.g. threads it started, or objects it registered
+     * with JVM-wide services. Use {@link #getLeakDetector()} to check the loader really does get collected.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        started = true;
+
+        writeProfile();
+        writeCdsTraining();
+        for (Thread hook : shutdownHooks) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException ex) {
+                // Already shutting down, so the hook will run (and harmlessly write everything again) anyway.
+            }
+        }
+        shutdownHooks.clear();
+
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException | SecurityException ex) {
+                log.warn("Unable to unregister Talon metrics MBean {}", metricsName, ex);
+            }
+            metricsName = null;
+        }
+
+        if (classLoader instanceof TalonClassLoader) {
+            ((TalonClassLoader) classLoader).close();
+            leakDetector = LeakDetector.watch(classLoader);
+        }
+        classLoader = null;
+        residentProxies = null;
+        profile = null;
+        cdsTraining = null;
+        classIndex = null;
+        // The loader has its own copies, which loading threads may still be reading, so only drop the references here.
+        transformers = new LinkedList<>();
+        pendingTransformers = new LinkedList<>();
+        transformCaches = new LinkedList<>();
+        log.debug("Talon closed.");
+    }
+
+    /**
+     * A detector for checking that this manager's classloader is unloaded after {@link #close()}.
+     *
+     * @return The leak detector, or {@literal null} if this manager hasn't been closed or never started.
+     */
+    public LeakDetector getLeakDetector() {
+        return leakDetector;
+    }
+
     /**
      * Registers a transformer with this Talon manager.
      * <p>
@@ -233,10 +558,225 @@ public class Talon {
         return transformers.remove(transformer);
     }
 
+    /**
+     * Attaches a cache of transformed classes to this Talon manager. When a class is about to be transformed, each cache
+     * is consulted in the order they were added before any transformers are run; on a hit, the transformers are skipped
+     * entirely and any earlier caches which missed are filled in. On a miss, the transformer output is stored in every
+     * cache.
+     * <p>
+     * Caching only takes effect if every registered transformer provides a {@link Transformer#getFingerprint()}. As
+     * {@link ClassFileTransformer} instances cannot provide one, registering any disables caching.
+     *
+     * @param cache The cache to add, e.g. a {@link io.drakon.talon.cache.DiskTransformCache}.
+     * @throws AlreadyStartedException if Talon has already been started once.
+     */
+    public void addTransformCache(TransformCache cache) {
+        if (started) {
+            throw new AlreadyStartedException();
+        }
+        transformCaches.add(cache);
+    }
+
+    /**
+     * Records the order in which classes are loaded to a profile file. The profile is written when the JVM shuts down,
+     * or on demand with {@link #saveProfile()}, and can be replayed on a later start with
+     * {@link #setProfileReplayFile(File)}.
+     * <p>
+     * The same file can be used for both recording and replay, in which case each start replays the previous run's
+     * profile and records a fresh one.
+     *
+     * @param file The profile file to write, or null to disable recording.
+     * @throws AlreadyStartedException if Talon has already been started once.
+     */
+    public void setProfileRecordFile(File file) {
+        if (started) {
+            throw new AlreadyStartedException();
+        }
+        profileRecordFile = file;
+    }
+
+    /**
+     * Replays a profile recorded by {@link #setProfileRecordFile(File)}. On start, the classes in the profile are read
+     * and transformed in parallel on background threads, in the order they were previously loaded, so that they are
+     * ready by the time the application asks for them. Classes are still defined on demand, so replaying a stale
+     * profile only costs wasted work.
+     * <p>
+     * If the file doesn't exist, classes are loaded on demand as usual. The number of background threads defaults to
+     * the number of processors, and can be set with <code>-Dtalon.replayThreads</code>.
+     *
+     * @param file The profile file to read, or null to disable replay.
+     * @throws AlreadyStartedException if Talon has already been started once.
+     */
+    public void setProfileReplayFile(File file) {
+        if (started) {
+            throw new AlreadyStartedException();
+        }
+        profileReplayFile = file;
+    }
+
+    /**
+     * Enables speculative prefetching of referenced classes. When a class considered for transformation is loaded, the
+     * classes it references (its superclass, interfaces, and the owners of fields and methods it uses) which are also
+     * considered for transformation are read and transformed on background threads, on the assumption they will be
+     * needed soon. Classes are still only defined when actually requested.
+     * <p>
+     * The background pool is bounded, and references are skipped rather than queued when it's busy. See the readme for
+     * the system properties which tune it.
+     *
+     * @param enabled True to enable prefetching.
+     * @throws AlreadyStartedException if Talon has already been started once.
+     */
+    public void setSpeculativePrefetch(boolean enabled) {
+        if (started) {
+            throw new AlreadyStartedException();
+        }
+        speculativePrefetch = enabled;
+    }
+
+    /**
+     * Loads classes from an archive written by {@link #compileArchive(File)} or {@link ArchiveCompiler}. Classes in the
+     * archive are defined straight from the memory-mapped archive, without running any transformers or consulting any
+     * transform caches; anything else is transformed as usual.
+     * <p>
+     * The archive is only used if it was compiled with the same classpath, package rules and transformers, and every
+     * transformer has a fingerprint (see {@link Transformer#getFingerprint()}). Otherwise, or if the archive can't be
+     * opened, all classes are transformed at runtime.
+     *
+     * @param file The archive file, or null to transform everything at runtime.
+     * @throws AlreadyStartedException if Talon has already been started once.
+     */
+    public void setClassArchive(File file) {
+        if (started) {
+            throw new AlreadyStartedException();
+        }
+        classArchiveFile = file;
+    }
+
+    /**
+     * Enables AppCDS training. Every class Talon defines is recorded, and written to the directory at shutdown (or on
+     * demand with {@link #saveCdsTraining()}): the defined bytes in a jar, a class list, and JVM argument files for
+     * creating and using a class data sharing archive of them. See the readme for how to use the output.
+     *
+     * @param dir The directory to write to, or null to disable training.
+     * @throws AlreadyStartedException if Talon has already been started once.
+     */
+    public void setCdsTrainingDir(File dir) {
+        if (started) {
+            throw new AlreadyStartedException();
+        }
+        cdsTrainingDir = dir;
+    }
+
+    /**
+     * Uses the output of an AppCDS training run (see {@link #setCdsTrainingDir(File)}). Recorded classes are defined
+     * from the recorded jar, byte for byte, with a code source pointing at that jar, which lets the JVM use an AppCDS
+     * archive of them instead of parsing them. The transformers aren't run for recorded classes.
+     * <p>
+     * The recording is only used if the classpath, whitelist and transformers are unchanged since training, which
+     * requires every transformer to have a {@link Transformer#getFingerprint()}. Otherwise, classes are transformed as
+     * usual. The same directory can be used for training, to refresh the recording on every run.
+     *
+     * @param dir The training directory, or null to not use a recording.
+     * @throws AlreadyStartedException if Talon has already been started once.
+     */
+    public void setCdsDir(File dir) {
+        if (started) {
+            throw new AlreadyStartedException();
+        }
+        cdsDir = dir;
+    }
+
+    /**
+     * Writes the AppCDS training output recorded so far to the directory set with {@link #setCdsTrainingDir(File)}.
+     * Does nothing if Talon hasn't started or training isn't enabled.
+     *
+     * @throws IOException if the output could not be written.
+     */
+    public void saveCdsTraining() throws IOException {
+        if (cdsTraining != null) {
+            cdsTraining.write();
+        }
+    }
+
+    /**
+     * Enables the {@link ClassIndex}, an index of the superclass, interfaces and annotations of every class Talon
+     * considers for transformation. The index is built in parallel on start (see <code>-Dtalon.indexThreads</code>),
+     * before the target is invoked, and is available from {@link #getClassIndex()} and to any transformer implementing
+     * {@link ClassIndexAware}.
+     * <p>
+     * If a file is given, the index is saved to it, and reused on later starts as long as the classpath jars and
+     * directories and the whitelist haven't changed since.
+     *
+     * @param file The file to persist the index in, or null to build it from scratch on every start.
+     * @throws AlreadyStartedException if Talon has already been started once.
+     */
+    public void enableClassIndex(File file) {
+        if (started) {
+            throw new AlreadyStartedException();
+        }
+        classIndexEnabled = true;
+        classIndexFile = file;
+    }
+
+    /**
+     * The class index, if enabled with {@link #enableClassIndex(File)} or requested by a {@link ClassIndexAware}
+     * transformer.
+     *
+     * @return The class index, or {@literal null} if Talon hasn't started or the index isn't enabled.
+     */
+    public ClassIndex getClassIndex() {
+        return classIndex;
+    }
+
+    /**
+     * Sets whether Talon should eagerly load every class it would consider for transformation, i.e. every class on the
+     * classpath in a whitelisted package (or not on the blacklist, if there is no whitelist). Classes are read and
+     * transformed in parallel, then defined in parallel, on a fork-join pool with one thread per processor by default
+     * (see <code>-Dtalon.preloadThreads</code>). This trades startup time for not having to load classes on demand.
+     * <p>
+     * Classes are loaded but not initialised, so no application code runs early. The result of the preload is
+     * available from {@link #getPreloadReport()}.
+     *
+     * @param mode When to preload. Defaults to {@link PreloadMode#NONE}.
+     * @throws AlreadyStartedException if Talon has already been started once.
+     */
+    public void setPreloadMode(PreloadMode mode) {
+        if (started) {
+            throw new AlreadyStartedException();
+        }
+        preloadMode = mode;
+    }
+
+    /**
+     * The result of the eager preload set up with {@link #setPreloadMode(PreloadMode)}. If preloading concurrently
+     * with the target, this completes when the preload does.
+     *
+     * @return The preload report, or {@literal null} if Talon hasn't started or preloading is disabled.
+     */
+    public CompletableFuture<PreloadReport> getPreloadReport() {
+        return preloadReport;
+    }
+
+    /**
+     * Writes the class-load profile recorded so far to the file set with {@link #setProfileRecordFile(File)}. Does
+     * nothing if Talon hasn't started or recording isn't enabled.
+     *
+     * @throws IOException if the profile could not be written.
+     */
+    public void saveProfile() throws IOException {
+        if (profile != null) {
+            profile.write(profileRecordFile);
+        }
+    }
+
     /**
      * Adds a package to the classloader whitelist for classes considered for transformation. The package should be
      * specified in the standard Java notation (e.g. <code>io.drakon.talon</code>) with an optional trailing '.'
      * <p>
+     * The package may also be a glob, where <code>*</code> matches within a single name segment and <code>**</code>
+     * matches across segments (e.g. <code>com.example.*.impl</code>). A glob matching a package also matches all of
+     * its subpackages.
+     * <p>
      * If no packages are whitelisted, Talon will apply the transformers to all classes not on its default blacklist.
      * For information on the contents of the default blacklist, consult the readme. Whitelisting anything that is
      * loaded by the bootstrap classloader will have no effect - classes from the bootstrap loader will always be used
@@ -272,6 +812,82 @@ public class Talon {
         packageWhitelist.remove(pkg);
     }
 
+    /**
+     * Adds a package to the classloader exclude list. Classes in excluded packages are never transformed, even if they
+     * are within a whitelisted package, so this can be used to carve exceptions out of the whitelist. If no packages
+     * are whitelisted, excludes apply in addition to the default blacklist.
+     * <p>
+     * The package follows the same rules as {@link #addWhitelistedPackage(String)}, including globs.
+     *
+     * @param pkg The package to add to the classloader transform exclude list.
+     * @throws AlreadyStartedException thrown if the Talon instance has already been started.
+     */
+    public void addExcludedPackage(String pkg) throws AlreadyStartedException {
+        if (started) {
+            throw new AlreadyStartedException();
+        }
+        if (!pkg.endsWith(".")) {
+            pkg += '.';
+        }
+        packageExcludes.add(pkg);
+    }
+
+    /**
+     * Removes a package from the classloader exclude list.
+     *
+     * @param pkg The package to remove from the classloader transform exclude list.
+     * @throws AlreadyStartedException thrown if the Talon instance has already been started.
+     */
+    public void removeExcludedPackage(String pkg) throws AlreadyStartedException {
+        if (started) {
+            throw new AlreadyStartedException();
+        }
+        if (!pkg.endsWith(".")) {
+            pkg += '.';
+        }
+        packageExcludes.remove(pkg);
+    }
+
+    /**
+     * Adds a package to the parent-first list. Classes in parent-first packages are loaded from the system classloader
+     * instead of being defined by Talon, so they're never transformed, and are shared with the rest of the JVM and with
+     * every other Talon instance. This saves metaspace and definition time for large libraries which don't need
+     * transforming.
+     * <p>
+     * Classes loaded this way resolve their own dependencies through the system classloader, so a parent-first package
+     * should only depend on the JDK and other parent-first packages; otherwise it will see different copies of those
+     * classes to the rest of the application. The package follows the same rules as
+     * {@link #addWhitelistedPackage(String)}, including globs.
+     *
+     * @param pkg The package to load from the system classloader.
+     * @throws AlreadyStartedException thrown if the Talon instance has already been started.
+     */
+    public void addParentFirstPackage(String pkg) throws AlreadyStartedException {
+        if (started) {
+            throw new AlreadyStartedException();
+        }
+        if (!pkg.endsWith(".")) {
+            pkg += '.';
+        }
+        packageParentFirst.add(pkg);
+    }
+
+    /**
+     * Removes a package from the parent-first list.
+     *
+     * @param pkg The package to remove from the parent-first list.
+     * @throws AlreadyStartedException thrown if the Talon instance has already been started.
+     */
+    public void removeParentFirstPackage(String pkg) throws AlreadyStartedException {
+        if (started) {
+            throw new AlreadyStartedException();
+        }
+        if (!pkg.endsWith(".")) {
+            pkg += '.';
+        }
+        packageParentFirst.remove(pkg);
+    }
+
     /**
      * Exception thrown when attempting to mutate manager state after Talon has been started.
      */
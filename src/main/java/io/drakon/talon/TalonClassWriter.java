@@ -0,0 +1,47 @@
+package io.drakon.talon;
+
+import io.drakon.talon.internal.ClassHierarchy;
+import org.apiguardian.api.API;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+/**
+ * {@link ClassWriter} which resolves class hierarchies for {@link ClassWriter#COMPUTE_FRAMES} from class file headers,
+ * instead of loading classes.
+ * <p>
+ * ASM's default {@link ClassWriter#getCommonSuperClass(String, String)} uses <code>Class.forName</code>, which loads
+ * (and initialises) classes through whichever loader loaded ASM, from inside a transformation. That picks up the wrong
+ * versions of classes, runs static initialisers early, and can deadlock when classes are loaded in parallel. This
+ * writer reads the classes' headers from the classpath instead, caching them in a bounded cache shared by all writers.
+ * <p>
+ * Talon uses this writer for fused {@link VisitorTransformer} passes. Transformers doing their own ASM round trip
+ * should use it instead of a plain {@link ClassWriter}.
+ */
+@API(status = API.Status.EXPERIMENTAL)
+public class TalonClassWriter extends ClassWriter {
+
+    private final ClassHierarchy hierarchy;
+
+    /**
+     * @param flags The writer flags; see {@link ClassWriter#ClassWriter(int)}.
+     */
+    public TalonClassWriter(int flags) {
+        super(flags);
+        this.hierarchy = ClassHierarchy.system();
+    }
+
+    /**
+     * @param reader The reader the class is being read from, to copy unchanged methods from.
+     * @param flags  The writer flags; see {@link ClassWriter#ClassWriter(ClassReader, int)}.
+     */
+    public TalonClassWriter(ClassReader reader, int flags) {
+        super(reader, flags);
+        this.hierarchy = ClassHierarchy.system();
+    }
+
+    @Override
+    protected String getCommonSuperClass(String type1, String type2) {
+        return hierarchy.getCommonSuperClass(type1, type2);
+    }
+
+}
@@ -0,0 +1,23 @@
+package io.drakon.talon;
+
+import java.nio.ByteBuffer;
+
+import org.apiguardian.api.API;
+
+/**
+ * Source of output buffers for {@link BufferTransformer}s. Buffers are owned and pooled by Talon, and stay valid until
+ * the class being transformed has been defined, after which they are reused.
+ */
+@API(status = API.Status.EXPERIMENTAL)
+public interface TransformOutput {
+
+    /**
+     * Gets an empty buffer to write a transformed class into. Each call returns a different buffer, so a transformer
+     * which runs out of space can allocate a bigger one and copy across.
+     *
+     * @param capacity The minimum capacity needed.
+     * @return A cleared buffer with at least the requested capacity.
+     */
+    ByteBuffer allocate(int capacity);
+
+}
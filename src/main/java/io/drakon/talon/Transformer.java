@@ -24,4 +24,31 @@ public interface Transformer {
      */
     byte[] transform(String className, String pkgName, byte[] classBytes);
 
+    /**
+     * Declares which classes this transformer wants to see. Talon uses this to avoid invoking the transformer on any
+     * other classes at all. This is called once when Talon starts, so the result must not change afterwards.
+     * <p>
+     * By default this returns null, meaning the transformer is invoked on every class considered for transformation.
+     *
+     * @return The classes this transformer is interested in, or null for all classes.
+     */
+    default Interest getInterest() {
+        return null;
+    }
+
+    /**
+     * A stable fingerprint of this transformer's identity and configuration, used to key any
+     * {@link io.drakon.talon.cache.TransformCache} attached to Talon. Two transformers with equal fingerprints must
+     * produce identical output for identical input, including across JVM restarts, so the fingerprint should include a
+     * version for the transformer logic as well as any configuration.
+     * <p>
+     * By default this returns null, which means the output of this transformer must never be cached. If any registered
+     * transformer returns null, transform caching is disabled.
+     *
+     * @return The fingerprint, or null if the output of this transformer cannot be cached.
+     */
+    default String getFingerprint() {
+        return null;
+    }
+
 }
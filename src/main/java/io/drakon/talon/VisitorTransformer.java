@@ -0,0 +1,60 @@
+package io.drakon.talon;
+
+import org.apiguardian.api.API;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+/**
+ * A {@link Transformer} which contributes an ASM {@link ClassVisitor} instead of working on raw bytes.
+ * <p>
+ * Consecutive visitor transformers are fused by Talon into a single {@link ClassReader} to {@link ClassWriter} pass, so
+ * a class is only parsed and written once no matter how many visitor transformers are registered. Ordering is preserved:
+ * the first registered transformer sees the class first, and any plain {@link Transformer} registered between two
+ * visitor transformers still runs between them.
+ * <p>
+ * If used outside of Talon's fused pipeline (e.g. called directly via {@link #transform(String, String, byte[])}), a
+ * visitor transformer behaves like any other transformer and performs its own read/write round trip.
+ */
+@API(status = API.Status.EXPERIMENTAL)
+public interface VisitorTransformer extends Transformer {
+
+    /**
+     * Creates a visitor which transforms the given class and then forwards to the next visitor in the chain. If no
+     * transformation is required on the class, return <code>next</code> unchanged, in which case this transformer is
+     * skipped for the class.
+     * <p>
+     * The same threading caveats as {@link Transformer#transform(String, String, byte[])} apply.
+     *
+     * @param className The class name to be transformed.
+     * @param pkgName   The package the class is within.
+     * @param next      The visitor to delegate to.
+     * @return A visitor wrapping <code>next</code>, or <code>next</code> itself if no transformation is required.
+     */
+    ClassVisitor createVisitor(String className, String pkgName, ClassVisitor next);
+
+    /**
+     * Flags this transformer needs on the {@link ClassWriter}, such as {@link ClassWriter#COMPUTE_MAXS} or
+     * {@link ClassWriter#COMPUTE_FRAMES}. The flags of all transformers in a fused pass are combined.
+     *
+     * @return The writer flags required, or 0 for none.
+     */
+    default int getWriterFlags() {
+        return 0;
+    }
+
+    @Override
+    default byte[] transform(String className, String pkgName, byte[] classBytes) {
+        ClassReader reader = new ClassReader(classBytes);
+        int writerFlags = getWriterFlags();
+        boolean computeFrames = (writerFlags & ClassWriter.COMPUTE_FRAMES) != 0;
+        ClassWriter writer = computeFrames ? new TalonClassWriter(writerFlags) : new TalonClassWriter(reader, writerFlags);
+        ClassVisitor visitor = createVisitor(className, pkgName, writer);
+        if (visitor == writer) {
+            return null;
+        }
+        reader.accept(visitor, computeFrames ? ClassReader.SKIP_FRAMES : 0);
+        return writer.toByteArray();
+    }
+
+}
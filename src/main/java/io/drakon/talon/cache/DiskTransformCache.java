@@ -0,0 +1,160 @@
+package io.drakon.talon.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apiguardian.api.API;
+
+/**
+ * {@link TransformCache} which persists entries to a directory, so that transformed classes survive JVM restarts.
+ * <p>
+ * Each entry is stored in its own file with a small header containing the payload length and a CRC32 checksum. Entries
+ * are written to a temporary file and atomically moved into place, so readers never observe a partly written entry.
+ * Entries which fail validation (e.g. truncated or corrupted on disk) are deleted and reported as misses.
+ */
+@Slf4j
+@API(status = API.Status.EXPERIMENTAL)
+public class DiskTransformCache implements TransformCache {
+
+    private static final int MAGIC = 0x54414C43; // "TALC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+
+    private final Path directory;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructs a new disk cache. The directory will be created if it does not already exist.
+     *
+     * @param directory The directory to store cache entries in.
+     * @throws IllegalArgumentException if the directory cannot be created or is not writable.
+     */
+    public DiskTransformCache(File directory) {
+        this.directory = directory.toPath();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("unable to create cache directory: " + directory);
+        }
+        if (!directory.canWrite()) {
+            throw new IllegalArgumentException("cache directory is not writable: " + directory);
+        }
+    }
+
+    @Override
+    public byte[] get(String key) {
+        Path path = pathFor(key);
+        byte[] raw;
+        try {
+            raw = Files.readAllBytes(path);
+        } catch (NoSuchFileException ex) {
+            misses.increment();
+            return null;
+        } catch (IOException ex) {
+            log.debug("Unable to read cache entry {}", path, ex);
+            misses.increment();
+            return null;
+        }
+
+        byte[] payload = decode(raw);
+        if (payload == null) {
+            log.debug("Discarding corrupt cache entry {}", path);
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ex) {
+                // Skip! The next put will replace it anyway.
+            }
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return payload;
+    }
+
+    @Override
+    public void put(String key, byte[] classBytes) {
+        Path path = pathFor(key);
+        Path tmp = null;
+        try {
+            Files.createDirectories(path.getParent());
+            tmp = Files.createTempFile(path.getParent(), key, ".tmp");
+            Files.write(tmp, encode(classBytes));
+            try {
+                Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+        } catch (IOException ex) {
+            log.debug("Unable to write cache entry {}", path, ex);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ex) {
+                    // Skip!
+                }
+            }
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "DiskTransformCache(" + directory + ")";
+    }
+
+    private Path pathFor(String key) {
+        // Fan out over subdirectories to keep directory sizes sane on large classpaths.
+        return directory.resolve(key.substring(0, 2)).resolve(key + ".tc");
+    }
+
+    private static byte[] encode(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(payload.length).putLong(crc.getValue()).put(payload);
+        return buf.array();
+    }
+
+    private static byte[] decode(byte[] raw) {
+        if (raw.length < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(raw);
+        if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+            return null;
+        }
+        int length = buf.getInt();
+        long checksum = buf.getLong();
+        if (length != raw.length - HEADER_SIZE) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(raw, HEADER_SIZE, length);
+        if (crc.getValue() != checksum) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        System.arraycopy(raw, HEADER_SIZE, payload, 0, length);
+        return payload;
+    }
+
+}
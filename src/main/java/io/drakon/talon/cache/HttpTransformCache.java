@@ -0,0 +1,326 @@
+package io.drakon.talon.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.drakon.talon.internal.Threads;
+import lombok.extern.slf4j.Slf4j;
+import org.apiguardian.api.API;
+
+/**
+ * {@link TransformCache} client for a remote, content-addressed cache over HTTP, such as a {@link TransformCacheServer}.
+ * Entries are fetched with <code>GET &lt;base&gt;/&lt;key&gt;</code> and stored with <code>PUT &lt;base&gt;/&lt;key&gt;</code>;
+ * a 404 is a miss.
+ * <p>
+ * The remote cache must never make loading slower than transforming locally, so:
+ * <ul>
+ *     <li>Lookups have a strict deadline (100ms by default) for the whole request, including name resolution and
+ *     connecting, and any failure is a miss. Requests run on a small pool of lookup threads so that the loading thread
+ *     can give up on them at the deadline; if every lookup thread is still stuck on an abandoned request, lookups miss
+ *     straight away.</li>
+ *     <li>Stores happen in the background on a single thread with a small queue, and are dropped if it's full.</li>
+ *     <li>After several consecutive failures or slow lookups (taking over half the deadline) the cache stops making
+ *     requests for a cooldown period (a circuit breaker), so an unreachable or struggling server costs nothing beyond
+ *     the first few requests.</li>
+ * </ul>
+ * Attach this after any local caches, so it's only consulted when they miss; hits are then copied into them.
+ */
+@Slf4j
+@API(status = API.Status.EXPERIMENTAL)
+public class HttpTransformCache implements TransformCache {
+
+    private static final int MAX_ENTRY_BYTES = 16 << 20;
+    private static final int MAX_LOOKUP_THREADS = 16;
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final String baseUrl;
+    private final int timeoutMillis;
+    private final ThreadPoolExecutor lookups;
+    private final ThreadPoolExecutor uploader;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong openUntil = new AtomicLong();
+    private final AtomicInteger pendingUploads = new AtomicInteger();
+
+    /**
+     * Constructs a new remote cache client with the default 100ms timeout.
+     *
+     * @param baseUrl The base URL of the cache, e.g. <code>http://cache.example:8080/cache</code>.
+     */
+    public HttpTransformCache(String baseUrl) {
+        this(baseUrl, 100);
+    }
+
+    /**
+     * Constructs a new remote cache client.
+     *
+     * @param baseUrl       The base URL of the cache, e.g. <code>http://cache.example:8080/cache</code>.
+     * @param timeoutMillis The deadline for each lookup, and the connect and read timeout for each store.
+     */
+    public HttpTransformCache(String baseUrl, int timeoutMillis) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + '/';
+        this.timeoutMillis = timeoutMillis;
+        this.lookups = new ThreadPoolExecutor(0, MAX_LOOKUP_THREADS, 10, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                runnable -> Threads.daemon(runnable, "talon-cache-lookup"));
+        this.uploader = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, new ArrayBlockingQueue<>(64),
+                runnable -> Threads.daemon(runnable, "talon-cache-upload"), (runnable, executor) -> pendingUploads.decrementAndGet());
+        this.uploader.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public byte[] get(String key) {
+        if (isCircuitOpen()) {
+            misses.increment();
+            return null;
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        AtomicReference<HttpURLConnection> connection = new AtomicReference<>();
+        Future<byte[]> lookup;
+        try {
+            lookup = lookups.submit(() -> fetch(key, deadline, connection));
+        } catch (RejectedExecutionException ex) {
+            failed(key, ex);
+            misses.increment();
+            return null;
+        }
+        try {
+            // Socket timeouts only bound each connect and read, and DNS lookups not at all, so this is the deadline.
+            byte[] body = lookup.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            finished(key, start);
+            if (body == null) {
+                misses.increment();
+            } else {
+                hits.increment();
+            }
+            return body;
+        } catch (TimeoutException ex) {
+            lookup.cancel(true);
+            HttpURLConnection conn = connection.get();
+            if (conn != null) {
+                abandon(conn);
+            }
+            failed(key, ex);
+        } catch (ExecutionException ex) {
+            failed(key, ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            lookup.cancel(true);
+        }
+        misses.increment();
+        return null;
+    }
+
+    // Runs on a lookup thread. Returns null for a miss.
+    // Unblocks the lookup thread if it's waiting on the server. Closing can wait for a read in progress to return, so it
+    // happens on another lookup thread; if there's none to spare, the lookup still gives up after its next read.
+    private void abandon(HttpURLConnection conn) {
+        try {
+            lookups.execute(conn::disconnect);
+        } catch (RejectedExecutionException ex) {
+            log.debug("No lookup thread free to disconnect an abandoned request.");
+        }
+    }
+
+    private byte[] fetch(String key, long deadline, AtomicReference<HttpURLConnection> connection) throws IOException {
+        HttpURLConnection conn = open(key, "GET", remainingMillis(deadline));
+        connection.set(conn);
+        try {
+            int status = conn.getResponseCode();
+            checkDeadline(deadline);
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                drain(conn.getErrorStream(), deadline);
+                return null;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("unexpected status " + status);
+            }
+            return read(conn, deadline);
+        } catch (IOException | RuntimeException ex) {
+            conn.disconnect(); // Don't leave a half-read response on a pooled connection.
+            throw ex;
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] classBytes) {
+        if (isCircuitOpen()) {
+            return;
+        }
+        pendingUploads.incrementAndGet();
+        uploader.execute(() -> {
+            try {
+                HttpURLConnection conn = open(key, "PUT", timeoutMillis);
+                conn.setDoOutput(true);
+                conn.setFixedLengthStreamingMode(classBytes.length);
+                try (OutputStream out = conn.getOutputStream()) {
+                    out.write(classBytes);
+                }
+                int status = conn.getResponseCode();
+                drain(status >= 400 ? conn.getErrorStream() : conn.getInputStream(),
+                        System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+                if (status / 100 != 2) {
+                    throw new IOException("unexpected status " + status);
+                }
+                succeeded();
+            } catch (IOException | RuntimeException ex) {
+                failed(key, ex);
+            } finally {
+                pendingUploads.decrementAndGet();
+            }
+        });
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of requests which failed or timed out.
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return True if requests are currently being skipped after repeated failures.
+     */
+    public boolean isCircuitOpen() {
+        long until = openUntil.get();
+        return until != 0 && System.nanoTime() - until < 0;
+    }
+
+    /**
+     * Waits for any queued stores to be sent.
+     *
+     * @param timeout The maximum time to wait.
+     * @param unit    The unit of the timeout.
+     * @return True if all stores were sent in time.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (pendingUploads.get() > 0) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpTransformCache(" + baseUrl + ")";
+    }
+
+    private HttpURLConnection open(String key, String method, int timeout) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl + key).openConnection();
+        conn.setRequestMethod(method);
+        conn.setConnectTimeout(timeout);
+        conn.setReadTimeout(timeout);
+        conn.setUseCaches(false);
+        return conn;
+    }
+
+    private static byte[] read(HttpURLConnection conn, long deadline) throws IOException {
+        long length = conn.getContentLengthLong();
+        if (length > MAX_ENTRY_BYTES) {
+            throw new IOException("entry too large: " + length);
+        }
+        try (InputStream in = conn.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 ? (int) length : 4096);
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                out.write(buf, 0, read);
+                if (out.size() > MAX_ENTRY_BYTES) {
+                    throw new IOException("entry too large");
+                }
+                checkDeadline(deadline);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    // Reading error bodies to the end lets HttpURLConnection reuse the connection.
+    private static void drain(InputStream in, long deadline) throws IOException {
+        if (in == null) {
+            return;
+        }
+        try (InputStream stream = in) {
+            byte[] buf = new byte[1024];
+            while (stream.read(buf) != -1) {
+                checkDeadline(deadline);
+            }
+        }
+    }
+
+    // Never 0, which would mean no timeout at all.
+    private static int remainingMillis(long deadline) throws IOException {
+        checkDeadline(deadline);
+        return (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    private static void checkDeadline(long deadline) throws IOException {
+        if (System.nanoTime() - deadline > 0) {
+            throw new IOException("deadline exceeded");
+        }
+    }
+
+    private void succeeded() {
+        consecutiveFailures.set(0);
+    }
+
+    // A lookup which only just beats the deadline still slows down every class load, so it counts against the server.
+    private void finished(String key, long start) {
+        long elapsed = System.nanoTime() - start;
+        if (elapsed > TimeUnit.MILLISECONDS.toNanos(timeoutMillis) / 2) {
+            log.debug("Remote cache request for {} took {}ms", key, TimeUnit.NANOSECONDS.toMillis(elapsed));
+            strike();
+        } else {
+            succeeded();
+        }
+    }
+
+    private void failed(String key, Throwable ex) {
+        failures.increment();
+        log.debug("Remote cache request for {} failed", key, ex);
+        strike();
+    }
+
+    private void strike() {
+        if (consecutiveFailures.incrementAndGet() >= FAILURE_THRESHOLD) {
+            consecutiveFailures.set(0);
+            openUntil.set(System.nanoTime() + COOLDOWN_NANOS);
+            log.warn("Remote cache {} failed or was slow {} times in a row; skipping it for {}s.", baseUrl,
+                    FAILURE_THRESHOLD, TimeUnit.NANOSECONDS.toSeconds(COOLDOWN_NANOS));
+        }
+    }
+
+}
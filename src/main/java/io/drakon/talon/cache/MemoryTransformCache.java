@@ -0,0 +1,159 @@
+package io.drakon.talon.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apiguardian.api.API;
+
+/**
+ * {@link TransformCache} which holds entries in memory, bounded by their total size in bytes and evicting the least
+ * recently used entries first.
+ * <p>
+ * A single instance can be attached to any number of {@link io.drakon.talon.Talon} instances in the same JVM. As keys
+ * include the fingerprints of the transformers applied, instances with different transformers never see each other's
+ * entries, while instances with the same transformers only transform each class once between them. Each loader still
+ * defines its own copy of the class. {@link #shared()} provides a JVM-wide instance for this.
+ * <p>
+ * Entries are split across independently locked segments by key, so concurrent lookups rarely contend. Each segment
+ * gets an equal share of the size limit, and caches are only split while each share stays at least 1MiB, so small caches
+ * use a single segment. An entry larger than its segment's share is not cached; {@link #getSkipped()} counts these.
+ */
+@API(status = API.Status.EXPERIMENTAL)
+public class MemoryTransformCache implements TransformCache {
+
+    private static final int MAX_SEGMENTS = 16;
+    private static final long MIN_SEGMENT_BYTES = 1 << 20;
+    private static final int ENTRY_OVERHEAD = 96; // Rough cost of the map entry, key string and array headers.
+
+    private final Segment[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    /**
+     * Constructs a new memory cache.
+     *
+     * @param maxBytes The approximate maximum size of all entries together, in bytes.
+     * @throws IllegalArgumentException if the size is not positive.
+     */
+    public MemoryTransformCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("cache size must be positive: " + maxBytes);
+        }
+        int count = (int) Math.min(MAX_SEGMENTS, Long.highestOneBit(Math.max(1, maxBytes / MIN_SEGMENT_BYTES)));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(maxBytes / count);
+        }
+    }
+
+    /**
+     * The JVM-wide shared memory cache, created on first use. Its size defaults to 64MiB, and can be set in bytes with
+     * <code>-Dtalon.memoryCacheBytes</code>.
+     *
+     * @return The shared cache.
+     */
+    public static MemoryTransformCache shared() {
+        return Shared.INSTANCE;
+    }
+
+    @Override
+    public byte[] get(String key) {
+        Segment segment = segmentFor(key);
+        byte[] value;
+        synchronized (segment) {
+            value = segment.entries.get(key);
+        }
+        (value == null ? misses : hits).increment();
+        return value;
+    }
+
+    @Override
+    public void put(String key, byte[] classBytes) {
+        long weight = weigh(key, classBytes);
+        Segment segment = segmentFor(key);
+        if (weight > segment.maxBytes) {
+            skipped.increment(); // Would evict everything else and still not fit.
+            return;
+        }
+        synchronized (segment) {
+            byte[] previous = segment.entries.put(key, classBytes);
+            if (previous != null) {
+                segment.bytes -= weigh(key, previous);
+            }
+            segment.bytes += weight;
+            Iterator<Map.Entry<String, byte[]>> eldest = segment.entries.entrySet().iterator();
+            while (segment.bytes > segment.maxBytes && eldest.hasNext()) {
+                Map.Entry<String, byte[]> entry = eldest.next();
+                segment.bytes -= weigh(entry.getKey(), entry.getValue());
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of entries evicted to stay within the size limit.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return The number of entries not cached because they alone exceed a segment's share of the size limit.
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    /**
+     * @return The approximate size of all entries currently held, in bytes.
+     */
+    public long getSizeBytes() {
+        long total = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                total += segment.bytes;
+            }
+        }
+        return total;
+    }
+
+    private Segment segmentFor(String key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    private static long weigh(String key, byte[] classBytes) {
+        return ENTRY_OVERHEAD + 2L * key.length() + classBytes.length;
+    }
+
+    private static final class Segment {
+        private final long maxBytes;
+        // Access-ordered, so iteration starts at the least recently used entry.
+        private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes = 0;
+
+        private Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+    }
+
+    private static final class Shared {
+        private static final MemoryTransformCache INSTANCE = new MemoryTransformCache(Long.getLong("talon.memoryCacheBytes", 64L << 20));
+    }
+
+}
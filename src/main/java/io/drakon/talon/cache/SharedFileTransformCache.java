@@ -0,0 +1,283 @@
+package io.drakon.talon.cache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apiguardian.api.API;
+
+/**
+ * {@link TransformCache} backed by a single memory-mapped file which any number of JVMs on the same host can read and
+ * append to concurrently, so that co-located processes only transform each class once between them.
+ * <p>
+ * The file is a fixed-size, append-only store: a header, an open-addressed table of index slots, then the entries. An
+ * entry is written in full before the offset of it is written to its index slot, and appends are serialised across
+ * processes with a {@link FileLock}. Readers take no locks at all; they look up the slot, and validate the entry's
+ * bounds, key and CRC32 checksum, so an entry caught mid-publish or damaged on disk is reported as a miss. Once the
+ * file (or its index) is full, further entries are silently dropped.
+ * <p>
+ * Every process maps the same file, so the entries share the page cache between them, and lookups only copy the bytes
+ * out of the mapping. The file is created on first use; an existing file keeps the size it was created with.
+ */
+@Slf4j
+@API(status = API.Status.EXPERIMENTAL)
+public class SharedFileTransformCache implements TransformCache, Closeable {
+
+    private static final int MAGIC = 0x54414C53; // "TALS"
+    private static final int VERSION = 1;
+    private static final int OFFSET_SLOTS = 8;
+    private static final int OFFSET_DATA_END = 16;
+    private static final int HEADER_SIZE = 24;
+    private static final int ENTRY_HEADER_SIZE = 4 + 4 + 4; // Key length, payload length, CRC32.
+
+    // FileLock is held per JVM, not per thread, so appends within a JVM are serialised separately.
+    private static final Map<String, Object> APPEND_LOCKS = new ConcurrentHashMap<>();
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final Object appendLock;
+    private final int slots;
+    private final int dataStart;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Opens a shared cache file, creating it if it does not already exist.
+     *
+     * @param file     The cache file. Every process sharing the cache should use the same path.
+     * @param maxBytes The size of the file if it has to be created, up to 2GiB.
+     * @throws IOException              if the file cannot be created, opened or mapped.
+     * @throws IllegalArgumentException if the size is out of range, or the file exists but isn't a shared cache.
+     */
+    public SharedFileTransformCache(File file, long maxBytes) throws IOException {
+        if (maxBytes < 64 * 1024 || maxBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("cache size must be between 64KiB and 2GiB: " + maxBytes);
+        }
+        this.file = file;
+        this.appendLock = APPEND_LOCKS.computeIfAbsent(file.getCanonicalPath(), it -> new Object());
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        try {
+            synchronized (appendLock) {
+                FileLock lock = channel.lock();
+                try {
+                    if (channel.size() == 0) {
+                        initialise(raf, maxBytes);
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            channel.close();
+            throw new IllegalArgumentException("not a shared transform cache: " + file);
+        }
+        int slots = buffer.getInt(OFFSET_SLOTS);
+        // Lookups must never throw, so a damaged index size is rejected here rather than failing every class load.
+        if (slots <= 0 || HEADER_SIZE + 8L * slots > buffer.capacity()) {
+            channel.close();
+            throw new IllegalArgumentException("not a shared transform cache (corrupt index): " + file);
+        }
+        this.slots = slots;
+        this.dataStart = HEADER_SIZE + slots * 8;
+    }
+
+    @Override
+    public byte[] get(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int slot = findSlot(keyBytes);
+        if (slot < 0) {
+            misses.increment();
+            return null;
+        }
+        // Other processes write to the file, so check the entry's bounds again rather than trusting what findSlot saw.
+        long offset = buffer.getLong(slotOffset(slot));
+        int length = offset < dataStart || offset + ENTRY_HEADER_SIZE > buffer.capacity() ? -1 : buffer.getInt((int) offset + 4);
+        if (length < 0 || offset + ENTRY_HEADER_SIZE + keyBytes.length + (long) length > buffer.capacity()) {
+            log.debug("Discarding damaged entry for {} in {}", key, file);
+            misses.increment();
+            return null;
+        }
+        long checksum = buffer.getInt((int) offset + 8) & 0xFFFFFFFFL;
+        byte[] payload = new byte[length];
+        ByteBuffer entry = buffer.duplicate();
+        entry.position((int) offset + ENTRY_HEADER_SIZE + keyBytes.length);
+        entry.get(payload);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, length);
+        if (crc.getValue() != checksum) {
+            log.debug("Discarding corrupt entry for {} in {}", key, file);
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return payload;
+    }
+
+    @Override
+    public void put(String key, byte[] classBytes) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int size = ENTRY_HEADER_SIZE + keyBytes.length + classBytes.length;
+        CRC32 crc = new CRC32();
+        crc.update(classBytes, 0, classBytes.length);
+
+        synchronized (appendLock) {
+            try {
+                FileLock lock = channel.lock();
+                try {
+                    append(key, keyBytes, classBytes, size, (int) crc.getValue());
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException ex) {
+                log.debug("Unable to lock shared cache {} for writing", file, ex);
+            }
+        }
+    }
+
+    // Must hold both the JVM-wide append lock and the file lock.
+    private void append(String key, byte[] keyBytes, byte[] classBytes, int size, int checksum) {
+        // Another process may have published this entry since the caller missed.
+        int slot = findSlot(keyBytes);
+        if (slot >= 0) {
+            return;
+        }
+        slot = -slot - 1;
+        if (slot >= slots) {
+            log.debug("Shared cache index {} is full; not storing {}", file, key);
+            return;
+        }
+        long end = buffer.getLong(OFFSET_DATA_END);
+        if (end < dataStart) {
+            log.debug("Shared cache {} has a corrupt data end; not storing {}", file, key);
+            return;
+        }
+        // Keep entries 8-byte aligned, so index slots and headers never straddle a page.
+        long next = (end + size + 7) & ~7L;
+        if (next > buffer.capacity()) {
+            log.debug("Shared cache {} is full; not storing {}", file, key);
+            return;
+        }
+
+        int offset = (int) end;
+        ByteBuffer entry = buffer.duplicate();
+        entry.position(offset);
+        entry.putInt(keyBytes.length).putInt(classBytes.length).putInt(checksum);
+        entry.put(keyBytes).put(classBytes);
+        buffer.putLong(OFFSET_DATA_END, next);
+        // Publish last, so a reader following the slot always finds a complete entry.
+        buffer.putLong(slotOffset(slot), offset);
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Closes the file. Entries can no longer be added, but the mapping stays valid until this cache is garbage
+     * collected, so any loader still using it will continue to work.
+     *
+     * @throws IOException if the file could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "SharedFileTransformCache(" + file + ")";
+    }
+
+    /**
+     * Finds the slot for a key.
+     *
+     * @return The slot index if present, otherwise <code>-(first empty slot) - 1</code>, where a first empty slot of
+     * <code>slots</code> means the index is full.
+     */
+    private int findSlot(byte[] keyBytes) {
+        int start = (int) ((hash(keyBytes) & 0x7FFFFFFFFFFFFFFFL) % slots);
+        for (int i = 0; i < slots; i++) {
+            int slot = (start + i) % slots;
+            long offset = buffer.getLong(slotOffset(slot));
+            if (offset == 0) {
+                return -slot - 1;
+            }
+            if (keyMatches(offset, keyBytes)) {
+                return slot;
+            }
+        }
+        return -slots - 1;
+    }
+
+    private boolean keyMatches(long offset, byte[] keyBytes) {
+        if (offset < dataStart || offset + ENTRY_HEADER_SIZE + keyBytes.length > buffer.capacity()) {
+            return false;
+        }
+        int pos = (int) offset;
+        if (buffer.getInt(pos) != keyBytes.length) {
+            return false;
+        }
+        int length = buffer.getInt(pos + 4);
+        if (length < 0 || pos + ENTRY_HEADER_SIZE + keyBytes.length + (long) length > buffer.capacity()) {
+            return false;
+        }
+        pos += ENTRY_HEADER_SIZE;
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (buffer.get(pos + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * 8;
+    }
+
+    // FNV-1a, which spreads hex keys and arbitrary strings alike.
+    private static long hash(byte[] keyBytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : keyBytes) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static void initialise(RandomAccessFile raf, long maxBytes) throws IOException {
+        // Assume entries average around 4KiB, and keep the index at most half full so probes stay short.
+        int slots = (int) Math.max(1024, maxBytes / 4096 * 2);
+        raf.setLength(maxBytes);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(slots).putInt(0).putLong(HEADER_SIZE + slots * 8L);
+        header.flip();
+        raf.getChannel().write(header, 0);
+    }
+
+}
@@ -0,0 +1,43 @@
+package io.drakon.talon.cache;
+
+import org.apiguardian.api.API;
+
+/**
+ * A store of transformed class bytes, keyed by a content hash of the original class bytes and the fingerprints of the
+ * transformers which were applied. Caches can be attached to a {@link io.drakon.talon.Talon} instance with
+ * {@link io.drakon.talon.Talon#addTransformCache(TransformCache)}.
+ * <p>
+ * Implementations must be thread-safe, and must never throw from {@link #get(String)} or {@link #put(String, byte[])}.
+ * Any failure should be treated as a miss, as the cache is only ever an optimisation.
+ */
+@API(status = API.Status.EXPERIMENTAL)
+public interface TransformCache {
+
+    /**
+     * Looks up the stored output for a key. A zero-length array is a valid entry, and means that the transformer chain
+     * left the class unchanged.
+     *
+     * @param key The cache key.
+     * @return The stored class bytes, a zero-length array if the class was left unchanged, or null on a miss.
+     */
+    byte[] get(String key);
+
+    /**
+     * Stores the output of the transformer chain for a key. The array must not be modified after being passed in.
+     *
+     * @param key        The cache key.
+     * @param classBytes The transformed class bytes, or a zero-length array if the class was left unchanged.
+     */
+    void put(String key, byte[] classBytes);
+
+    /**
+     * @return The number of lookups which found an entry.
+     */
+    long getHits();
+
+    /**
+     * @return The number of lookups which did not find a (valid) entry.
+     */
+    long getMisses();
+
+}
@@ -0,0 +1,170 @@
+package io.drakon.talon.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import org.apiguardian.api.API;
+
+/**
+ * Small reference server for {@link HttpTransformCache}, serving any other {@link TransformCache} over HTTP. Intended
+ * for local testing, and as a reference for implementing the protocol on real infrastructure:
+ * <ul>
+ *     <li><code>GET /cache/&lt;key&gt;</code>: 200 with the entry as the body (which may be empty), or 404.</li>
+ *     <li><code>PUT /cache/&lt;key&gt;</code>: stores the body as the entry, then 204.</li>
+ * </ul>
+ * Keys are restricted to letters, digits, '-' and '_'.
+ * <p>
+ * Run standalone with <code>java -cp talon.jar io.drakon.talon.cache.TransformCacheServer &lt;port&gt; &lt;dir&gt;</code>
+ * to serve a {@link DiskTransformCache} in the given directory.
+ */
+@Slf4j
+@API(status = API.Status.EXPERIMENTAL)
+public class TransformCacheServer {
+
+    private static final String CONTEXT = "/cache/";
+    private static final Pattern KEY = Pattern.compile("[A-Za-z0-9_-]{1,128}");
+    private static final int MAX_ENTRY_BYTES = 16 << 20;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final TransformCache backing;
+
+    /**
+     * Constructs a new server. It won't accept requests until {@link #start()} is called.
+     *
+     * @param address The address to bind to. Port 0 picks a free port; see {@link #getPort()}.
+     * @param backing The cache to serve.
+     * @throws IOException if the server cannot bind to the address.
+     */
+    public TransformCacheServer(InetSocketAddress address, TransformCache backing) throws IOException {
+        this.backing = backing;
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+            Thread thread = new Thread(runnable, "talon-cache-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server.setExecutor(executor);
+        this.server.createContext(CONTEXT, this::handle);
+    }
+
+    /**
+     * Starts serving requests.
+     */
+    public void start() {
+        server.start();
+        log.info("Transform cache server listening on {}, serving {}", server.getAddress(), backing);
+    }
+
+    /**
+     * Stops the server, waiting up to a second for in-flight requests to finish.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * @return The port the server is bound to.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return The base URL for an {@link HttpTransformCache} on this machine.
+     */
+    public String getBaseUrl() {
+        return "http://localhost:" + getPort() + CONTEXT;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String key = exchange.getRequestURI().getPath().substring(CONTEXT.length());
+            if (!KEY.matcher(key).matches()) {
+                respond(exchange, 400, null);
+                return;
+            }
+            switch (exchange.getRequestMethod()) {
+                case "GET":
+                    byte[] entry = backing.get(key);
+                    respond(exchange, entry == null ? 404 : 200, entry);
+                    break;
+                case "PUT":
+                    byte[] body = readBody(exchange);
+                    if (body == null) {
+                        respond(exchange, 413, null);
+                        return;
+                    }
+                    backing.put(key, body);
+                    respond(exchange, 204, null);
+                    break;
+                default:
+                    exchange.getResponseHeaders().set("Allow", "GET, PUT");
+                    respond(exchange, 405, null);
+            }
+        } catch (RuntimeException ex) {
+            log.warn("Error handling transform cache request {}", exchange.getRequestURI(), ex);
+            respond(exchange, 500, null);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                out.write(buf, 0, read);
+                if (out.size() > MAX_ENTRY_BYTES) {
+                    return null;
+                }
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        if (body == null || body.length == 0) {
+            // A length of -1 means no body at all, which is only right for a 204. Anything else gets an empty chunked
+            // body, as HttpServer otherwise leaves the client with a connection it can't reuse.
+            exchange.sendResponseHeaders(status, status == 204 ? -1 : 0);
+            exchange.getResponseBody().close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Runs a standalone server backed by a {@link DiskTransformCache}.
+     *
+     * @param args The port, then the cache directory.
+     * @throws IOException if the server cannot start.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: TransformCacheServer <port> <cache dir>");
+            System.exit(1);
+        }
+        TransformCacheServer server = new TransformCacheServer(new InetSocketAddress(Integer.parseInt(args[0])),
+                new DiskTransformCache(new File(args[1])));
+        server.start();
+    }
+
+}
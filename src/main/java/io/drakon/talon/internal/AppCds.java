@@ -0,0 +1,274 @@
+package io.drakon.talon.internal;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.apiguardian.api.API;
+
+/**
+ * Support for JDK application class data sharing (AppCDS) of classes defined by a {@link TalonClassLoader}.
+ * <p>
+ * The JDK can only archive classes from custom loaders if it can find their exact bytes in a jar, and will only use an
+ * archived class if the loader later defines identical bytes. A {@link Training} run records every class the loader
+ * defines, and writes a directory containing:
+ * <ul>
+ * <li><code>classes.jar</code>: the defined (transformed) bytes of every class.</li>
+ * <li><code>classlist</code>: a class list for a static dump, with each class's supertypes and source jar.</li>
+ * <li><code>dump.args</code>, <code>dynamic.args</code> and <code>run.args</code>: JVM argument files to create a
+ * static archive from the class list, create a dynamic archive at exit, and run with the archive.</li>
+ * <li><code>stamp</code>: the classpath, whitelist and transformers the jar was built with.</li>
+ * </ul>
+ * On later starts with the same stamp, {@link #open(File, String)} gives the loader a fast path which defines classes
+ * straight from <code>classes.jar</code>, with a code source pointing at it. The bytes are identical to what was
+ * archived, so the JVM can map the pre-parsed class instead of parsing it, and the transformers don't need to run.
+ */
+@Slf4j
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon"})
+public final class AppCds {
+
+    static final String JAR = "classes.jar";
+    static final String CLASSLIST = "classlist";
+    static final String STAMP = "stamp";
+    static final String ARCHIVE = "talon.jsa";
+
+    private final JarFile jar;
+    private final ProtectionDomain domain;
+
+    private AppCds(JarFile jar, ProtectionDomain domain) {
+        this.jar = jar;
+        this.domain = domain;
+    }
+
+    /**
+     * Opens the classes recorded by a training run, if they're still valid.
+     *
+     * @param dir   The training directory.
+     * @param stamp The stamp of the current classpath, whitelist and transformers.
+     * @return The recorded classes, or null if there aren't any or they were recorded with a different stamp.
+     */
+    static AppCds open(File dir, String stamp) {
+        File jarFile = new File(dir, JAR);
+        File stampFile = new File(dir, STAMP);
+        if (!jarFile.isFile() || !stampFile.isFile()) {
+            log.info("No AppCDS training output in {} yet; classes will be transformed at runtime.", dir);
+            return null;
+        }
+        try {
+            String recorded = new String(Files.readAllBytes(stampFile.toPath()), StandardCharsets.UTF_8).trim();
+            if (!recorded.equals(stamp)) {
+                log.info("AppCDS training output in {} is stale; classes will be transformed at runtime.", dir);
+                return null;
+            }
+            CodeSource source = new CodeSource(jarFile.getAbsoluteFile().toURI().toURL(), (Certificate[]) null);
+            return new AppCds(new JarFile(jarFile), new ProtectionDomain(source, null));
+        } catch (IOException ex) {
+            log.warn("Unable to open AppCDS training output in {}; classes will be transformed at runtime.", dir, ex);
+            return null;
+        }
+    }
+
+    /**
+     * @param fileName The class file name, e.g. <code>io/drakon/talon/Talon.class</code>.
+     * @return True if the class was recorded.
+     */
+    boolean contains(String fileName) {
+        return jar.getEntry(fileName) != null;
+    }
+
+    /**
+     * @param fileName The class file name, e.g. <code>io/drakon/talon/Talon.class</code>.
+     * @return The recorded bytes, or null if the class wasn't recorded.
+     * @throws IOException if the jar could not be read.
+     */
+    byte[] read(String fileName) throws IOException {
+        JarEntry entry = jar.getJarEntry(fileName);
+        if (entry == null) {
+            return null;
+        }
+        try (InputStream stream = jar.getInputStream(entry)) {
+            return IOUtils.toByteArray(stream);
+        }
+    }
+
+    /**
+     * @return The protection domain to define recorded classes with, so that the JVM can find them in the archive.
+     */
+    ProtectionDomain getProtectionDomain() {
+        return domain;
+    }
+
+    void close() {
+        try {
+            jar.close();
+        } catch (IOException ex) {
+            log.debug("Unable to close {}", jar.getName(), ex);
+        }
+    }
+
+    /**
+     * Records the classes a loader defines, and writes them out for AppCDS.
+     */
+    public static final class Training {
+
+        private final File dir;
+        private final String stamp;
+        private final ConcurrentLinkedQueue<Defined> defined = new ConcurrentLinkedQueue<>();
+
+        Training(File dir, String stamp) {
+            this.dir = dir;
+            this.stamp = stamp;
+        }
+
+        void record(Class<?> clazz, byte[] bytes) {
+            Class<?> superclass = clazz.getSuperclass();
+            Class<?>[] interfaces = clazz.getInterfaces();
+            String[] interfaceNames = new String[interfaces.length];
+            for (int i = 0; i < interfaces.length; i++) {
+                interfaceNames[i] = interfaces[i].getName();
+            }
+            // Interfaces have no superclass as far as reflection is concerned, but have Object in the class file.
+            defined.add(new Defined(clazz.getName(), superclass == null ? "java.lang.Object" : superclass.getName(),
+                    interfaceNames, bytes));
+        }
+
+        /**
+         * Writes everything recorded so far, replacing the output of any earlier training run.
+         *
+         * @return The number of classes written.
+         * @throws IOException if the output could not be written.
+         */
+        public int write() throws IOException {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("unable to create AppCDS training directory: " + dir);
+            }
+            File jarFile = new File(dir, JAR).getAbsoluteFile();
+            File archive = new File(dir, ARCHIVE).getAbsoluteFile();
+            File classlist = new File(dir, CLASSLIST).getAbsoluteFile();
+            // The stamp goes first and comes back last, so an interrupted write is never mistaken for a valid one.
+            Files.deleteIfExists(new File(dir, STAMP).toPath());
+
+            // Classes are recorded as soon as they're defined, and before anything else can see them, so supertypes are
+            // always recorded first and this order is safe for the class list. Anything defined twice (by name) keeps its first definition.
+            Map<String, Defined> classes = new LinkedHashMap<>();
+            for (Defined entry : defined) {
+                classes.putIfAbsent(entry.name, entry);
+            }
+
+            writeJar(jarFile, new TreeMap<>(classes));
+            replace(classlist, classlist(classes.values(), jarFile));
+            replace(new File(dir, "dump.args"), "-Xshare:dump\n-XX:SharedClassListFile=" + quote(classlist)
+                    + "\n-XX:SharedArchiveFile=" + quote(archive) + "\n");
+            replace(new File(dir, "dynamic.args"), "-XX:ArchiveClassesAtExit=" + quote(archive) + "\n");
+            replace(new File(dir, "run.args"), "-XX:SharedArchiveFile=" + quote(archive) + "\n");
+            replace(new File(dir, STAMP), stamp + "\n");
+            return classes.size();
+        }
+
+        private static String classlist(Collection<Defined> classes, File jarFile) {
+            // Supertypes from outside this loader are listed by name only, and resolved by the built-in loaders.
+            Map<String, Integer> ids = new HashMap<>();
+            StringBuilder out = new StringBuilder("# Generated by Talon for -XX:SharedClassListFile; do not edit.\n");
+            for (Defined entry : classes) {
+                int superId = id(ids, entry.superclass, out);
+                int[] interfaceIds = new int[entry.interfaces.length];
+                for (int i = 0; i < interfaceIds.length; i++) {
+                    interfaceIds[i] = id(ids, entry.interfaces[i], out);
+                }
+                int id = ids.size();
+                ids.put(entry.name, id);
+                out.append(internalName(entry.name)).append(" id: ").append(id).append(" super: ").append(superId);
+                if (interfaceIds.length > 0) {
+                    out.append(" interfaces:");
+                    for (int interfaceId : interfaceIds) {
+                        out.append(' ').append(interfaceId);
+                    }
+                }
+                out.append(" source: ").append(jarFile.getPath()).append('\n');
+            }
+            return out.toString();
+        }
+
+        private static int id(Map<String, Integer> ids, String name, StringBuilder out) {
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = ids.size();
+                ids.put(name, id);
+                out.append(internalName(name)).append(" id: ").append(id).append('\n');
+            }
+            return id;
+        }
+
+        private static void writeJar(File file, Map<String, Defined> classes) throws IOException {
+            File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            try (JarOutputStream out = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+                for (Defined entry : classes.values()) {
+                    // Stored rather than deflated, so reading a class back is just a copy. Timestamps are fixed so that
+                    // the jar only changes when the classes do.
+                    ZipEntry zipEntry = new ZipEntry(internalName(entry.name) + ".class");
+                    CRC32 crc = new CRC32();
+                    crc.update(entry.bytes);
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(entry.bytes.length);
+                    zipEntry.setCompressedSize(entry.bytes.length);
+                    zipEntry.setCrc(crc.getValue());
+                    zipEntry.setTime(0);
+                    out.putNextEntry(zipEntry);
+                    out.write(entry.bytes);
+                    out.closeEntry();
+                }
+            } catch (IOException ex) {
+                Files.deleteIfExists(tmp.toPath());
+                throw ex;
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        private static void replace(File file, String contents) throws IOException {
+            File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+            Files.write(tmp.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        private static String internalName(String name) {
+            return name.replace('.', '/');
+        }
+
+        // JVM argument files split on whitespace unless quoted.
+        private static String quote(File file) {
+            String path = file.getPath();
+            return path.indexOf(' ') == -1 ? path : '"' + path.replace("\\", "\\\\") + '"';
+        }
+
+    }
+
+    private static final class Defined {
+
+        private final String name;
+        private final String superclass;
+        private final String[] interfaces;
+        private final byte[] bytes;
+
+        private Defined(String name, String superclass, String[] interfaces, byte[] bytes) {
+            this.name = name;
+            this.superclass = superclass;
+            this.interfaces = interfaces;
+            this.bytes = bytes;
+        }
+
+    }
+
+}
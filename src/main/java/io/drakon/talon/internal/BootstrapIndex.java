@@ -0,0 +1,199 @@
+package io.drakon.talon.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apiguardian.api.API;
+
+/**
+ * Index of the packages provided by the JDK's bootstrap and platform (extension) classloaders, used to avoid asking
+ * those loaders for classes they cannot possibly have. A failed lookup costs a {@link ClassNotFoundException} with a
+ * full stack trace, so skipping it for application classes is a significant saving during startup.
+ * <p>
+ * On Java 9+ the packages are read from the <code>jrt:/</code> filesystem, on Java 8 from the boot classpath and
+ * extension directories. The index is a superset: a class in an indexed package may still not exist, in which case the
+ * name is remembered in a negative cache. The cache holds at most <code>talon.bootstrapMissLimit</code> names (4096 by
+ * default) and starts over once full, so an application probing many missing names can't grow it without bound. If the
+ * index can't be built, or <code>talon.bootstrapIndex</code> is set to <code>false</code>, every name is treated as a
+ * possible JDK class.
+ * <p>
+ * The index is a snapshot taken when it is first used, so it misses jars an agent appends later through
+ * <code>Instrumentation.appendToBootstrapClassLoaderSearch</code>. A name outside the index is still reported as possible
+ * if the bootstrap loader has already defined its package.
+ */
+@Slf4j
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon.internal"})
+public final class BootstrapIndex {
+
+    private static final BootstrapPackages BOOTSTRAP_PACKAGES = new BootstrapPackages();
+    private static final BootstrapIndex INSTANCE = new BootstrapIndex(
+            Boolean.parseBoolean(System.getProperty("talon.bootstrapIndex", "true")) ? scanPackages() : null);
+
+    // Open-addressed so lookups can hash a region of the class name in place, without substring allocations.
+    private final String[] table;
+    private final Set<String> misses = ConcurrentHashMap.newKeySet();
+    private final int missLimit = Math.max(1, Integer.getInteger("talon.bootstrapMissLimit", 4096));
+
+    BootstrapIndex(Set<String> packages) {
+        if (packages == null) {
+            this.table = null;
+            return;
+        }
+        int capacity = Integer.highestOneBit(Math.max(packages.size(), 1) * 4);
+        this.table = new String[capacity];
+        for (String pkg : packages) {
+            int slot = hash(pkg, pkg.length()) & (capacity - 1);
+            while (table[slot] != null) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            table[slot] = pkg;
+        }
+    }
+
+    /**
+     * @return The shared index for this JVM.
+     */
+    public static BootstrapIndex get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param name The full class name.
+     * @return False if the bootstrap/platform loaders definitely do not provide this class.
+     */
+    public boolean mayContain(String name) {
+        if (table == null || name.startsWith("java.")) {
+            return true;
+        }
+        if (misses.contains(name)) {
+            return false;
+        }
+        int pkgLength = Math.max(name.lastIndexOf('.'), 0);
+        int slot = hash(name, pkgLength) & (table.length - 1);
+        while (table[slot] != null) {
+            String pkg = table[slot];
+            if (pkg.length() == pkgLength && name.regionMatches(0, pkg, 0, pkgLength)) {
+                return true;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+        // Not in the snapshot, but the bootstrap search path may have grown since it was taken.
+        return pkgLength > 0 && BOOTSTRAP_PACKAGES.isDefined(name.substring(0, pkgLength));
+    }
+
+    /**
+     * Records that a class in an indexed package was not found, so later lookups for it can be skipped.
+     *
+     * @param name The full class name.
+     */
+    public void recordMiss(String name) {
+        if (misses.size() >= missLimit) {
+            misses.clear();
+        }
+        misses.add(name);
+    }
+
+    private static int hash(String str, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + str.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static Set<String> scanPackages() {
+        Set<String> packages = new HashSet<>();
+        try {
+            if (!scanJrt(packages)) {
+                scanPath(System.getProperty("sun.boot.class.path"), packages);
+                String extDirs = System.getProperty("java.ext.dirs");
+                if (extDirs != null) {
+                    for (String dir : extDirs.split(File.pathSeparator)) {
+                        File[] jars = new File(dir).listFiles((it, name) -> name.endsWith(".jar"));
+                        if (jars != null) {
+                            for (File jar : jars) {
+                                scanEntry(jar, packages);
+                            }
+                        }
+                    }
+                }
+            }
+            // -Xbootclasspath/a: on Java 9+
+            scanPath(System.getProperty("jdk.boot.class.path.append"), packages);
+        } catch (IOException | RuntimeException ex) {
+            log.debug("Unable to index bootstrap packages; falling back to querying the bootstrap loader.", ex);
+            return null;
+        }
+        if (packages.isEmpty()) {
+            log.debug("Found no bootstrap packages; falling back to querying the bootstrap loader.");
+            return null;
+        }
+        log.debug("Indexed {} bootstrap/platform packages.", packages.size());
+        return packages;
+    }
+
+    private static boolean scanJrt(Set<String> packages) throws IOException {
+        FileSystem jrt;
+        try {
+            jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        } catch (FileSystemNotFoundException | ProviderNotFoundException ex) {
+            return false; // Java 8
+        }
+        try (Stream<Path> pkgs = Files.list(jrt.getPath("/packages"))) {
+            pkgs.forEach(it -> packages.add(it.getFileName().toString()));
+        }
+        return true;
+    }
+
+    private static void scanPath(String path, Set<String> packages) throws IOException {
+        if (path == null || path.isEmpty()) {
+            return;
+        }
+        for (String entry : path.split(File.pathSeparator)) {
+            scanEntry(new File(entry), packages);
+        }
+    }
+
+    private static void scanEntry(File entry, Set<String> packages) throws IOException {
+        if (entry.isDirectory()) {
+            Path root = entry.toPath();
+            try (Stream<Path> files = Files.walk(root)) {
+                files.filter(it -> it.toString().endsWith(".class"))
+                        .forEach(it -> packages.add(packageOf(root.relativize(it).toString().replace(File.separatorChar, '/'))));
+            }
+        } else if (entry.isFile()) {
+            try (JarFile jar = new JarFile(entry)) {
+                jar.stream()
+                        .filter(it -> it.getName().endsWith(".class"))
+                        .forEach(it -> packages.add(packageOf(it.getName())));
+            }
+        }
+    }
+
+    private static String packageOf(String entryName) {
+        int slash = entryName.lastIndexOf('/');
+        return slash == -1 ? "" : entryName.substring(0, slash).replace('/', '.');
+    }
+
+    // Defines nothing itself, so getPackage only sees packages the bootstrap loader has defined.
+    private static final class BootstrapPackages extends ClassLoader {
+
+        private BootstrapPackages() {
+            super(null);
+        }
+
+        @SuppressWarnings("deprecation")
+        private boolean isDefined(String pkg) {
+            return getPackage(pkg) != null;
+        }
+
+    }
+
+}
@@ -0,0 +1,314 @@
+package io.drakon.talon.internal;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apiguardian.api.API;
+
+/**
+ * A read-only archive of classes transformed ahead of time, indexed by class name with a perfect hash so that lookups
+ * touch a fixed number of places in the file and never probe.
+ * <p>
+ * The archive is memory mapped, and class bytes are handed out as views of the mapping. The layout (big-endian) is:
+ * <pre>
+ * header:  int magic ("TALA"), int version, int classes, int buckets, int slots, int stamp length
+ * stamp:   UTF-8 stamp of the classpath, package rules and transformers the archive was built from
+ * seeds:   int[buckets]     displacement seed for each bucket
+ * slots:   long[slots]      offset of the entry in each slot, or 0 if empty
+ * entries: u16 name length, UTF-8 name, int length (-1 if the transformers made no changes), bytes
+ * </pre>
+ * Names are hashed into buckets of about four, then each bucket (largest first) is given the first seed which sends all
+ * its names to free slots, in the manner of "hash and displace". Lookups rehash the name with its bucket's seed and
+ * compare the name stored in that single slot.
+ * <p>
+ * The stamp is the same as for AppCDS training output (see {@link ClassIndexBuilder#stamp(List, String)}), so that an
+ * archive built from different classes or transformers is never used.
+ */
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon"})
+public final class ClassArchive {
+
+    /**
+     * Returned by {@link #get(String)} for classes which the transformers left unchanged. Compare by identity.
+     */
+    public static final ByteBuffer UNCHANGED = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    private static final int MAGIC = 0x54414C41; // "TALA"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 24;
+    private static final int BUCKET_SIZE = 4;
+    private static final int MAX_SEED = 1 << 24;
+
+    private final MappedByteBuffer map;
+    private final String stamp;
+    private final int classes;
+    private final int buckets;
+    private final int slots;
+    private final int seedsOffset;
+    private final int slotsOffset;
+
+    private ClassArchive(MappedByteBuffer map, String stamp, int classes, int buckets, int slots) {
+        this.map = map;
+        this.stamp = stamp;
+        this.classes = classes;
+        this.buckets = buckets;
+        this.slots = slots;
+        this.seedsOffset = HEADER_SIZE + map.getInt(20);
+        this.slotsOffset = seedsOffset + 4 * buckets;
+    }
+
+    /**
+     * Maps an archive.
+     *
+     * @param file The archive file.
+     * @return The archive.
+     * @throws IOException if the file could not be mapped or isn't an archive.
+     */
+    public static ClassArchive open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("not a Talon class archive: " + file);
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (map.getInt(0) != MAGIC) {
+                throw new IOException("not a Talon class archive: " + file);
+            }
+            if (map.getInt(4) != VERSION) {
+                throw new IOException("unsupported Talon class archive version " + map.getInt(4) + ": " + file);
+            }
+            int classes = map.getInt(8);
+            int buckets = map.getInt(12);
+            int slots = map.getInt(16);
+            int stampLength = map.getInt(20);
+            if (classes < 0 || buckets < 1 || slots < 1 || stampLength < 0
+                    || HEADER_SIZE + (long) stampLength + 4L * buckets + 8L * slots > size) {
+                throw new IOException("corrupt Talon class archive: " + file);
+            }
+            byte[] stamp = new byte[stampLength];
+            ByteBuffer view = map.duplicate();
+            view.position(HEADER_SIZE);
+            view.get(stamp);
+            return new ClassArchive(map, new String(stamp, StandardCharsets.UTF_8), classes, buckets, slots);
+        }
+    }
+
+    /**
+     * Looks up a class.
+     *
+     * @param name The full class name.
+     * @return A read-only view of the transformed class bytes, {@link #UNCHANGED} if the transformers made no changes to
+     * it, or null if the class isn't in the archive.
+     */
+    public ByteBuffer get(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(key);
+        int seed = map.getInt(seedsOffset + 4 * bucket(hash, buckets));
+        long offset = map.getLong(slotsOffset + 8 * slot(hash, seed, slots));
+        if (offset <= 0 || offset + 6 > map.limit()) {
+            return null;
+        }
+        int pos = (int) offset;
+        int nameLength = map.getShort(pos) & 0xFFFF;
+        if (nameLength != key.length || pos + 6L + nameLength > map.limit()) {
+            return null;
+        }
+        pos += 2;
+        for (byte b : key) {
+            if (map.get(pos++) != b) {
+                return null;
+            }
+        }
+        int length = map.getInt(pos);
+        pos += 4;
+        if (length == -1) {
+            return UNCHANGED;
+        }
+        if (length < 0 || (long) pos + length > map.limit()) {
+            return null;
+        }
+        ByteBuffer view = map.duplicate();
+        view.position(pos);
+        view.limit(pos + length);
+        return view.slice();
+    }
+
+    /**
+     * @return The stamp the archive was written with.
+     */
+    public String getStamp() {
+        return stamp;
+    }
+
+    /**
+     * @return The number of classes in the archive.
+     */
+    public int size() {
+        return classes;
+    }
+
+    /**
+     * Writes an archive, replacing any existing file.
+     *
+     * @param file    The archive file to write.
+     * @param stamp   The stamp of the classpath, package rules and transformers the classes were transformed with.
+     * @param classes Transformed class bytes by full class name, with an empty array for classes which the
+     *                transformers left unchanged.
+     * @throws IOException if the file could not be written.
+     */
+    public static void write(File file, String stamp, Map<String, byte[]> classes) throws IOException {
+        byte[] stampBytes = stamp.getBytes(StandardCharsets.UTF_8);
+        String[] names = classes.keySet().toArray(new String[0]);
+        Arrays.sort(names); // Keeps the output reproducible between builds.
+        byte[][] keys = new byte[names.length][];
+        long[] hashes = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            keys[i] = names[i].getBytes(StandardCharsets.UTF_8);
+            if (keys[i].length > 0xFFFF) {
+                throw new IOException("class name too long: " + names[i]);
+            }
+            hashes[i] = hash(keys[i]);
+        }
+
+        int buckets = Math.max(1, (names.length + BUCKET_SIZE - 1) / BUCKET_SIZE);
+        int slots = Math.max(1, names.length + names.length / 4);
+        int[] seeds = new int[buckets];
+        int[] slotOf = place(hashes, buckets, slots, seeds);
+
+        long[] offsets = new long[slots];
+        long offset = HEADER_SIZE + stampBytes.length + 4L * buckets + 8L * slots;
+        for (int i = 0; i < names.length; i++) {
+            offsets[slotOf[i]] = offset;
+            offset += 2 + keys[i].length + 4 + classes.get(names[i]).length;
+        }
+        if (offset > Integer.MAX_VALUE) {
+            throw new IOException("class archive would be larger than 2GiB");
+        }
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(file.getName(), ".tmp", parent);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(names.length);
+            out.writeInt(buckets);
+            out.writeInt(slots);
+            out.writeInt(stampBytes.length);
+            out.write(stampBytes);
+            for (int seed : seeds) {
+                out.writeInt(seed);
+            }
+            for (long slotOffset : offsets) {
+                out.writeLong(slotOffset);
+            }
+            for (int i = 0; i < names.length; i++) {
+                byte[] bytes = classes.get(names[i]);
+                out.writeShort(keys[i].length);
+                out.write(keys[i]);
+                out.writeInt(bytes.length == 0 ? -1 : bytes.length);
+                out.write(bytes);
+            }
+        } catch (IOException ex) {
+            Files.deleteIfExists(tmp.toPath());
+            throw ex;
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Finds a seed for each bucket such that every name lands in its own slot.
+     *
+     * @return The slot of each name.
+     */
+    private static int[] place(long[] hashes, int buckets, int slots, int[] seeds) {
+        List<List<Integer>> members = new ArrayList<>(buckets);
+        for (int b = 0; b < buckets; b++) {
+            members.add(new ArrayList<>(BUCKET_SIZE));
+        }
+        for (int i = 0; i < hashes.length; i++) {
+            members.get(bucket(hashes[i], buckets)).add(i);
+        }
+        Integer[] order = new Integer[buckets];
+        for (int b = 0; b < buckets; b++) {
+            order[b] = b;
+        }
+        // Big buckets are the hardest to place, so they go first while the table is still mostly empty.
+        Arrays.sort(order, (a, b) -> Integer.compare(members.get(b).size(), members.get(a).size()));
+
+        boolean[] taken = new boolean[slots];
+        int[] slotOf = new int[hashes.length];
+        int[] candidate = new int[BUCKET_SIZE * 4];
+        for (int b : order) {
+            List<Integer> bucket = members.get(b);
+            if (bucket.isEmpty()) {
+                break;
+            }
+            if (candidate.length < bucket.size()) {
+                candidate = new int[bucket.size()];
+            }
+            int seed = 1;
+            search:
+            for (; ; seed++) {
+                if (seed > MAX_SEED) {
+                    throw new IllegalStateException("unable to build a perfect hash for the class archive");
+                }
+                for (int i = 0; i < bucket.size(); i++) {
+                    int slot = slot(hashes[bucket.get(i)], seed, slots);
+                    if (taken[slot]) {
+                        continue search;
+                    }
+                    for (int j = 0; j < i; j++) {
+                        if (candidate[j] == slot) {
+                            continue search;
+                        }
+                    }
+                    candidate[i] = slot;
+                }
+                break;
+            }
+            seeds[b] = seed;
+            for (int i = 0; i < bucket.size(); i++) {
+                taken[candidate[i]] = true;
+                slotOf[bucket.get(i)] = candidate[i];
+            }
+        }
+        return slotOf;
+    }
+
+    // 64-bit FNV-1a, finished with MurmurHash3's mixer so that the low bits are usable for bucketing.
+    private static long hash(byte[] key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static int bucket(long hash, int buckets) {
+        return (int) ((hash >>> 1) % buckets);
+    }
+
+    private static int slot(long hash, int seed, int slots) {
+        return (int) ((mix(hash ^ (seed * 0x9E3779B97F4A7C15L)) >>> 1) % slots);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
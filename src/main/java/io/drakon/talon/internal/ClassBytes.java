@@ -0,0 +1,69 @@
+package io.drakon.talon.internal;
+
+import java.nio.ByteBuffer;
+
+import org.apiguardian.api.API;
+
+/**
+ * Class bytes held either as an array or a buffer, converting between the two only when something needs the other form.
+ * Lets buffers from a mapped jar or a {@link io.drakon.talon.BufferTransformer} reach <code>defineClass</code> without a
+ * copy onto the heap, while array-based transformers and caches still work.
+ */
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon.internal"})
+public final class ClassBytes {
+
+    private byte[] array;
+    private final ByteBuffer buffer;
+
+    private ClassBytes(byte[] array, ByteBuffer buffer) {
+        this.array = array;
+        this.buffer = buffer;
+    }
+
+    static ClassBytes of(byte[] array) {
+        return new ClassBytes(array, null);
+    }
+
+    /**
+     * @param buffer The bytes between the buffer's position and limit. Must not be modified afterwards, and if it's
+     *               pooled, must only be used until the class has been defined.
+     */
+    static ClassBytes of(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            // defineClass copies heap buffers anyway, so there's nothing to gain from keeping one around.
+            if (buffer.hasArray() && buffer.arrayOffset() + buffer.position() == 0 && buffer.remaining() == buffer.array().length) {
+                return of(buffer.array());
+            }
+            byte[] array = new byte[buffer.remaining()];
+            buffer.duplicate().get(array);
+            return of(array);
+        }
+        return new ClassBytes(null, buffer.slice());
+    }
+
+    /**
+     * @return The bytes as an array, copying them out of the buffer on first use.
+     */
+    byte[] array() {
+        if (array == null) {
+            array = new byte[buffer.remaining()];
+            buffer.duplicate().get(array);
+        }
+        return array;
+    }
+
+    /**
+     * @return A read-only view of the bytes.
+     */
+    ByteBuffer buffer() {
+        return buffer != null ? buffer.asReadOnlyBuffer() : ByteBuffer.wrap(array).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return True if the bytes are only available as a (direct) buffer.
+     */
+    boolean isBufferOnly() {
+        return array == null;
+    }
+
+}
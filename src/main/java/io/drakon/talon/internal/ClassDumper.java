@@ -0,0 +1,366 @@
+package io.drakon.talon.internal;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apiguardian.api.API;
+
+/**
+ * Background writer for transformed class dumps (<code>-Dtalon.saveClassesTo</code>).
+ * <p>
+ * Classes are handed off to a bounded queue and written by a single daemon thread, so the classloading path never
+ * blocks on disk I/O unless the {@link Overflow#BLOCK} policy is chosen. The writer drains the queue in batches, and
+ * writes either one file per class (the original layout) or a single jar. The dump is flushed and closed on JVM
+ * shutdown.
+ * <p>
+ * The system-wide dumper is configured with:
+ * <ul>
+ *     <li><code>talon.saveClassesTo</code>: the output directory.</li>
+ *     <li><code>talon.saveClassesFormat</code>: <code>dir</code> (default) or <code>jar</code>.</li>
+ *     <li><code>talon.saveClassesQueue</code>: the queue capacity, default 1024.</li>
+ *     <li><code>talon.saveClassesOverflow</code>: <code>drop</code> (default) or <code>block</code>.</li>
+ * </ul>
+ */
+@Slf4j
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon.internal"})
+public class ClassDumper implements Closeable {
+
+    /**
+     * What to do when the queue is full.
+     */
+    public enum Overflow {
+        /**
+         * Discard the class (counted and logged) and carry on loading.
+         */
+        DROP,
+        /**
+         * Block the loading thread until there is space, or the writer stops.
+         */
+        BLOCK
+    }
+
+    /**
+     * How to lay out the dump.
+     */
+    public enum Format {
+        /**
+         * One <code>.class</code> file per class under the output directory.
+         */
+        DIR,
+        /**
+         * A single jar in the output directory.
+         */
+        JAR
+    }
+
+    private static final int BATCH_SIZE = 256;
+    // How often a blocked submitter checks that the writer is still running.
+    private static final long BLOCK_POLL_MILLIS = 100;
+    private static final Pending POISON = new Pending(null, null);
+
+    private final File directory;
+    private final Format format;
+    private final Overflow overflow;
+    private final BlockingQueue<Pending> queue;
+    private final Thread writer;
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final Object progress = new Object();
+    private long submitted = 0;
+    private long completed = 0;
+    private JarOutputStream jar;
+    private final Set<String> jarEntries = new HashSet<>();
+    private volatile boolean closed = false;
+
+    public ClassDumper(File directory, Format format, int capacity, Overflow overflow) {
+        this.directory = directory;
+        this.format = format;
+        this.overflow = overflow;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = Threads.daemon(this::run, "talon-class-dumper");
+        this.writer.start();
+    }
+
+    /**
+     * @return The dumper configured from system properties, or null if dumping is disabled.
+     */
+    public static ClassDumper system() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Queues a class for writing. Never blocks under the {@link Overflow#DROP} policy.
+     *
+     * @param fileName The class file name, e.g. <code>io/drakon/talon/Talon.class</code>.
+     * @param bytes    The class bytes, which must not be modified afterwards.
+     */
+    public void submit(String fileName, byte[] bytes) {
+        if (closed) {
+            return;
+        }
+        Pending pending = new Pending(fileName, bytes);
+        synchronized (progress) {
+            submitted++;
+        }
+        boolean queued;
+        if (overflow == Overflow.BLOCK) {
+            try {
+                queued = false;
+                while (!closed && writer.isAlive()) {
+                    if (queue.offer(pending, BLOCK_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        queued = true;
+                        break;
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                queued = false;
+            }
+        } else {
+            queued = queue.offer(pending);
+        }
+        if (!queued) {
+            dropped.increment();
+            markCompleted(1);
+            // Log the first drop and then every thousandth, to avoid flooding the log while the disk is behind.
+            long drops = dropped.sum();
+            if (drops == 1 || drops % 1000 == 0) {
+                log.warn("Class dump queue full; {} classes dropped so far (latest {}).", drops, fileName);
+            }
+        }
+    }
+
+    /**
+     * Waits until everything submitted so far has been written or dropped.
+     *
+     * @param timeout The maximum time to wait.
+     * @param unit    The unit of the timeout.
+     * @return True if everything was written in time.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (progress) {
+            while (completed < submitted) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !writer.isAlive()) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(progress, remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of classes written.
+     */
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * @return The number of classes dropped due to a full queue, or because the writer failed.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes out anything queued, then stops the writer thread and closes the dump.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            // The writer may have died with the queue full, in which case nothing would ever take from it.
+            boolean stopping = false;
+            while (!stopping && writer.isAlive()) {
+                stopping = queue.offer(POISON, BLOCK_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                boolean stop = false;
+                int count = 0;
+                for (Pending pending : batch) {
+                    if (pending == POISON) {
+                        stop = true;
+                        continue;
+                    }
+                    write(pending);
+                    count++;
+                }
+                batch.clear();
+                if (jar != null) {
+                    jar.flush();
+                }
+                markCompleted(count);
+                if (stop) {
+                    break;
+                }
+            }
+        } catch (InterruptedException ex) {
+            log.debug("Class dump writer interrupted; stopping.");
+        } catch (IOException ex) {
+            log.error("Class dump writer failed; no more classes will be saved.", ex);
+        } finally {
+            closed = true;
+            discardQueued();
+            closeJar();
+            synchronized (progress) {
+                progress.notifyAll();
+            }
+        }
+    }
+
+    // Drops anything the writer won't get to, so that blocked submitters and flushes aren't left waiting for it.
+    private void discardQueued() {
+        List<Pending> discarded = new ArrayList<>();
+        queue.drainTo(discarded);
+        discarded.remove(POISON);
+        if (!discarded.isEmpty()) {
+            dropped.add(discarded.size());
+            markCompleted(discarded.size());
+            log.warn("Class dump writer stopped; {} queued classes dropped.", discarded.size());
+        }
+    }
+
+    private void write(Pending pending) throws IOException {
+        if (format == Format.JAR) {
+            if (jar == null) {
+                File out = new File(directory, "talon-classes-" + System.currentTimeMillis() + ".jar");
+                log.info("Saving transformed classes to {}", out.getPath());
+                jar = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(out)));
+            }
+            // The same class may be defined by more than one Talon loader; keep the first copy.
+            if (jarEntries.add(pending.fileName)) {
+                jar.putNextEntry(new ZipEntry(pending.fileName));
+                jar.write(pending.bytes);
+                jar.closeEntry();
+                written.increment();
+            }
+            return;
+        }
+
+        File out = new File(directory, pending.fileName);
+        if (!out.getParentFile().isDirectory() && !out.getParentFile().mkdirs()) {
+            log.error("Failed to create dirs for path: {}", out.getPath());
+            return;
+        }
+        try {
+            File tmp = File.createTempFile(out.getName(), ".tmp", out.getParentFile());
+            Files.write(tmp.toPath(), pending.bytes);
+            Files.move(tmp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            written.increment();
+            log.debug("Saved transformed class: {}", pending.fileName);
+        } catch (IOException ex) {
+            log.error("Unable to save class file '{}': {}", out.getPath(), ex);
+        }
+    }
+
+    private void markCompleted(int count) {
+        synchronized (progress) {
+            completed += count;
+            progress.notifyAll();
+        }
+    }
+
+    private void closeJar() {
+        if (jar != null) {
+            try {
+                jar.close();
+            } catch (IOException ex) {
+                log.error("Unable to close class dump jar", ex);
+            }
+            jar = null;
+        }
+    }
+
+    /**
+     * Creates a dumper configured as described for the system-wide dumper. Invalid values are logged and replaced with
+     * the defaults, as a typo in a debugging option shouldn't stop classes loading.
+     *
+     * @param properties The properties to read, e.g. the system properties.
+     * @return The dumper, or null if <code>talon.saveClassesTo</code> isn't set.
+     */
+    public static ClassDumper fromProperties(Properties properties) {
+        String dir = properties.getProperty("talon.saveClassesTo");
+        if (dir == null) {
+            return null;
+        }
+        Format format = parse(properties, "talon.saveClassesFormat", Format.class, Format.DIR);
+        Overflow overflow = parse(properties, "talon.saveClassesOverflow", Overflow.class, Overflow.DROP);
+        int capacity = 1024;
+        String queue = properties.getProperty("talon.saveClassesQueue");
+        if (queue != null) {
+            try {
+                capacity = Integer.parseInt(queue.trim());
+            } catch (NumberFormatException ex) {
+                log.warn("Invalid value '{}' for talon.saveClassesQueue; using {}.", queue, capacity);
+            }
+            if (capacity < 1) {
+                log.warn("Invalid value '{}' for talon.saveClassesQueue; using 1.", queue);
+                capacity = 1;
+            }
+        }
+        return new ClassDumper(new File(dir), format, capacity, overflow);
+    }
+
+    private static <E extends Enum<E>> E parse(Properties properties, String key, Class<E> type, E fallback) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            log.warn("Invalid value '{}' for {}; using {}.", value, key, fallback.name().toLowerCase(Locale.ROOT));
+            return fallback;
+        }
+    }
+
+    private static ClassDumper fromSystemProperties() {
+        ClassDumper dumper = fromProperties(System.getProperties());
+        if (dumper != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(dumper::close, "talon-class-dumper-shutdown"));
+        }
+        return dumper;
+    }
+
+    private static final class Holder {
+        private static final ClassDumper INSTANCE = fromSystemProperties();
+    }
+
+    private static final class Pending {
+        private final String fileName;
+        private final byte[] bytes;
+
+        private Pending(String fileName, byte[] bytes) {
+            this.fileName = fileName;
+            this.bytes = bytes;
+        }
+    }
+
+}
@@ -0,0 +1,196 @@
+package io.drakon.talon.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+import org.apache.commons.io.IOUtils;
+import org.apiguardian.api.API;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Resolves class hierarchy information (superclass, interfaces) by reading class file headers, without loading any
+ * classes. Used by {@link io.drakon.talon.TalonClassWriter} to compute stack map frames.
+ * <p>
+ * Classes are found through the {@link ClasspathIndex} where possible, falling back to the system classloader's
+ * resources (which also covers JDK classes). Only the header of each class is parsed, and the results are kept in a
+ * bounded LRU cache shared by all writers, sized with <code>-Dtalon.hierarchyCacheSize</code> (default 8192 classes).
+ */
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon"})
+public class ClassHierarchy {
+
+    private static final String OBJECT = "java/lang/Object";
+
+    private final ClasspathIndex classpath;
+    private final ClassLoader resources;
+    private final Map<String, Info> cache;
+
+    public ClassHierarchy(ClasspathIndex classpath, ClassLoader resources, int capacity) {
+        this.classpath = classpath;
+        this.resources = resources;
+        this.cache = new LinkedHashMap<String, Info>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Info> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return The hierarchy resolver for the system classpath.
+     */
+    public static ClassHierarchy system() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Finds the closest common superclass of two classes, with the same semantics as
+     * {@link org.objectweb.asm.ClassWriter#getCommonSuperClass(String, String)}: if either is an interface which the
+     * other doesn't implement, the result is <code>java/lang/Object</code>.
+     *
+     * @param type1 The internal name of a class.
+     * @param type2 The internal name of another class.
+     * @return The internal name of the common superclass.
+     * @throws TypeNotPresentException if either class, or one of their supertypes, can't be found.
+     */
+    public String getCommonSuperClass(String type1, String type2) {
+        if (type1.equals(type2)) {
+            return type1;
+        }
+        if (isAssignableFrom(type1, type2)) {
+            return type1;
+        }
+        if (isAssignableFrom(type2, type1)) {
+            return type2;
+        }
+        if (info(type1).isInterface || info(type2).isInterface) {
+            return OBJECT;
+        }
+        String type = type1;
+        do {
+            type = info(type).superName;
+        } while (type != null && !isAssignableFrom(type, type2));
+        return type == null ? OBJECT : type;
+    }
+
+    /**
+     * @param type  The internal name of the class or interface being assigned to.
+     * @param other The internal name of the class being assigned.
+     * @return True if <code>other</code> is <code>type</code>, or extends or implements it.
+     * @throws TypeNotPresentException if a class in <code>other</code>'s hierarchy can't be found.
+     */
+    public boolean isAssignableFrom(String type, String other) {
+        if (type.equals(other) || type.equals(OBJECT)) {
+            return true;
+        }
+        Deque<String> pending = new ArrayDeque<>();
+        Set<String> seen = new HashSet<>();
+        pending.add(other);
+        while (!pending.isEmpty()) {
+            Info info = info(pending.poll());
+            if (info.superName != null) {
+                if (info.superName.equals(type)) {
+                    return true;
+                }
+                if (seen.add(info.superName)) {
+                    pending.add(info.superName);
+                }
+            }
+            for (String iface : info.interfaces) {
+                if (iface.equals(type)) {
+                    return true;
+                }
+                if (seen.add(iface)) {
+                    pending.add(iface);
+                }
+            }
+        }
+        return false;
+    }
+
+    private Info info(String type) {
+        synchronized (cache) {
+            Info info = cache.get(type);
+            if (info != null) {
+                return info;
+            }
+        }
+        // Parsed outside the lock; at worst two threads parse the same header.
+        Info info = read(type);
+        synchronized (cache) {
+            cache.put(type, info);
+        }
+        return info;
+    }
+
+    private Info read(String type) {
+        String entryName = type + ".class";
+        byte[] bytes = null;
+        try {
+            bytes = classpath.read(entryName);
+            if (bytes == null) {
+                try (InputStream stream = resources.getResourceAsStream(entryName)) {
+                    if (stream != null) {
+                        bytes = IOUtils.toByteArray(stream);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            throw new TypeNotPresentException(type.replace('/', '.'), ex);
+        }
+        if (bytes == null) {
+            throw new TypeNotPresentException(type.replace('/', '.'), null);
+        }
+        Info info = parse(bytes);
+        if (info == null) {
+            throw new TypeNotPresentException(type.replace('/', '.'), new IOException("malformed class file"));
+        }
+        return info;
+    }
+
+    // Reads just the header after the constant pool, rather than using ClassReader, so that class files newer than
+    // ASM supports (e.g. from a newer JDK) can still be resolved.
+    private static Info parse(byte[] bytes) {
+        int[] offsets = ConstantPoolScanner.offsets(bytes);
+        if (offsets == null) {
+            return null;
+        }
+        try {
+            int offset = offsets[0];
+            int access = ConstantPoolScanner.readUnsignedShort(bytes, offset);
+            int superIndex = ConstantPoolScanner.readUnsignedShort(bytes, offset + 4);
+            String superName = superIndex == 0 ? null : ConstantPoolScanner.className(bytes, offsets, superIndex);
+            String[] interfaces = new String[ConstantPoolScanner.readUnsignedShort(bytes, offset + 6)];
+            for (int i = 0; i < interfaces.length; i++) {
+                interfaces[i] = ConstantPoolScanner.className(bytes, offsets, ConstantPoolScanner.readUnsignedShort(bytes, offset + 8 + 2 * i));
+                if (interfaces[i] == null) {
+                    return null;
+                }
+            }
+            if (superIndex != 0 && superName == null) {
+                return null;
+            }
+            return new Info(superName, interfaces, (access & Opcodes.ACC_INTERFACE) != 0);
+        } catch (IndexOutOfBoundsException | IOException ex) {
+            return null;
+        }
+    }
+
+    private static final class Info {
+        private final String superName;
+        private final String[] interfaces;
+        private final boolean isInterface;
+
+        private Info(String superName, String[] interfaces, boolean isInterface) {
+            this.superName = superName;
+            this.interfaces = interfaces;
+            this.isInterface = isInterface;
+        }
+    }
+
+    private static final class Holder {
+        private static final ClassHierarchy INSTANCE = new ClassHierarchy(ClasspathIndex.system(),
+                ClassLoader.getSystemClassLoader(), Integer.getInteger("talon.hierarchyCacheSize", 8192));
+    }
+
+}
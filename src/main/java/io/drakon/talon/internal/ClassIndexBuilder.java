@@ -0,0 +1,326 @@
+package io.drakon.talon.internal;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import io.drakon.talon.ClassIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.apiguardian.api.API;
+
+/**
+ * Builds {@link ClassIndex} instances by parsing class headers in parallel, and persists them to disk.
+ * <p>
+ * A persisted index is stamped with the classpath roots it was built from (path, size and modification time for jars;
+ * path, class count and latest modification time for directories) and the package rules used to select classes. On
+ * load, the stamp is recomputed and the index is only reused if it matches exactly; otherwise it's rebuilt and
+ * rewritten. Recomputing the stamp only touches file metadata, so it's far cheaper than parsing every class.
+ */
+@Slf4j
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon.internal"})
+public class ClassIndexBuilder {
+
+    private static final int MAGIC = 0x54414C49; // "TALI"
+    private static final int VERSION = 1;
+
+    /**
+     * Loads the index from a file if it's still valid, and otherwise builds it (and saves it, if a file was given).
+     *
+     * @param file        The file to persist the index in, or null to always build.
+     * @param stamp       The stamp the persisted index must match; see {@link #stamp(List, String)}.
+     * @param names       The classes to index.
+     * @param reader      Reads a class file by entry name, returning null if it can't be read.
+     * @param parallelism The number of threads to build with.
+     * @return The index.
+     */
+    public static ClassIndex loadOrBuild(File file, String stamp, List<String> names, Function<String, byte[]> reader, int parallelism) {
+        if (file != null && file.isFile()) {
+            ClassIndex loaded = load(file, stamp);
+            if (loaded != null) {
+                log.debug("Reusing class index from {} ({} classes)", file, loaded.getClasses().size());
+                return loaded;
+            }
+            log.debug("Class index {} is stale; rebuilding.", file);
+        }
+
+        long start = System.nanoTime();
+        ClassIndex index = build(names, reader, parallelism);
+        log.debug("Indexed {} classes in {}ms", index.getClasses().size(), (System.nanoTime() - start) / 1_000_000);
+        if (file != null) {
+            try {
+                save(file, stamp, index);
+            } catch (IOException ex) {
+                log.warn("Unable to save class index to {}", file, ex);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Computes the stamp for a set of classpath roots and package rules.
+     *
+     * @param roots The classpath roots, in order.
+     * @param rules The package rules used to select classes.
+     * @return The stamp, as a hash of everything above.
+     */
+    public static String stamp(List<File> roots, String rules) {
+        StringBuilder stamp = new StringBuilder(rules);
+        for (File root : roots) {
+            stamp.append('\n').append(root.getAbsolutePath());
+            if (root.isFile()) {
+                stamp.append('|').append(root.length()).append('|').append(root.lastModified());
+            } else if (root.isDirectory()) {
+                long count = 0;
+                long latest = 0;
+                try (Stream<Path> files = Files.walk(root.toPath())) {
+                    for (Path path : (Iterable<Path>) files.filter(it -> it.toString().endsWith(".class"))::iterator) {
+                        count++;
+                        latest = Math.max(latest, Files.getLastModifiedTime(path).toMillis());
+                    }
+                } catch (IOException | UncheckedIOException ex) {
+                    latest = -1; // Never matches, so the index is rebuilt.
+                }
+                stamp.append("|d").append(count).append('|').append(latest);
+            }
+        }
+        // Long classpaths would overflow writeUTF, so store a hash instead.
+        return TransformCacheChain.hex(TransformCacheChain.sha256().digest(stamp.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static ClassIndex build(List<String> names, Function<String, byte[]> reader, int parallelism) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        List<Parsed> parsed;
+        try {
+            parsed = pool.submit(() -> names.parallelStream()
+                    .map(name -> parse(name, reader))
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while building class index", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("unable to build class index", ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        Map<String, String> superclasses = new HashMap<>();
+        Map<String, List<String>> interfaces = new HashMap<>();
+        Map<String, List<String>> annotations = new HashMap<>();
+        for (Parsed it : parsed) {
+            superclasses.put(it.name, it.superName);
+            interfaces.put(it.name, it.interfaces);
+            annotations.put(it.name, it.annotations);
+        }
+        return new ClassIndex(superclasses, interfaces, annotations);
+    }
+
+    private static Parsed parse(String name, Function<String, byte[]> reader) {
+        byte[] bytes = reader.apply(name.replace('.', '/').concat(".class"));
+        if (bytes == null) {
+            log.warn("Leaving {} out of the class index; unable to read it", name);
+            return null;
+        }
+        Parsed parsed;
+        try {
+            parsed = parse(name, bytes);
+        } catch (IndexOutOfBoundsException | IOException ex) {
+            parsed = null;
+        }
+        if (parsed == null) {
+            log.warn("Leaving {} out of the class index; malformed class file", name);
+        }
+        return parsed;
+    }
+
+    // Reads just the header and class attributes rather than using ClassReader, as ClassHierarchy does, so that class
+    // files newer than ASM supports can still be indexed and fields and methods are skipped without being parsed.
+    private static Parsed parse(String name, byte[] bytes) throws IOException {
+        int[] offsets = ConstantPoolScanner.offsets(bytes);
+        if (offsets == null) {
+            return null;
+        }
+        Parsed parsed = new Parsed(name);
+        int offset = offsets[0];
+        int superIndex = ConstantPoolScanner.readUnsignedShort(bytes, offset + 4);
+        if (superIndex != 0) {
+            String superName = ConstantPoolScanner.className(bytes, offsets, superIndex);
+            if (superName == null) {
+                return null;
+            }
+            parsed.superName = superName.replace('/', '.');
+        }
+        int interfaceCount = ConstantPoolScanner.readUnsignedShort(bytes, offset + 6);
+        offset += 8;
+        for (int i = 0; i < interfaceCount; i++, offset += 2) {
+            String iface = ConstantPoolScanner.className(bytes, offsets, ConstantPoolScanner.readUnsignedShort(bytes, offset));
+            if (iface == null) {
+                return null;
+            }
+            parsed.interfaces.add(iface.replace('/', '.'));
+        }
+
+        offset = skipMembers(bytes, offset); // Fields
+        offset = skipMembers(bytes, offset); // Methods
+        int attributeCount = ConstantPoolScanner.readUnsignedShort(bytes, offset);
+        offset += 2;
+        for (int i = 0; i < attributeCount; i++) {
+            String attribute = ConstantPoolScanner.utf8(bytes, offsets, ConstantPoolScanner.readUnsignedShort(bytes, offset));
+            if ("RuntimeVisibleAnnotations".equals(attribute) || "RuntimeInvisibleAnnotations".equals(attribute)) {
+                int pos = offset + 6;
+                int annotationCount = ConstantPoolScanner.readUnsignedShort(bytes, pos);
+                pos += 2;
+                for (int j = 0; j < annotationCount; j++) {
+                    String descriptor = ConstantPoolScanner.utf8(bytes, offsets, ConstantPoolScanner.readUnsignedShort(bytes, pos));
+                    if (descriptor == null || descriptor.length() < 3 || descriptor.charAt(0) != 'L'
+                            || descriptor.charAt(descriptor.length() - 1) != ';') {
+                        return null;
+                    }
+                    parsed.annotations.add(descriptor.substring(1, descriptor.length() - 1).replace('/', '.'));
+                    pos = skipAnnotationBody(bytes, pos + 2);
+                }
+            }
+            offset += 6 + ConstantPoolScanner.readInt(bytes, offset + 2);
+        }
+        return parsed;
+    }
+
+    // Skips a field or method table, returning the offset after it.
+    private static int skipMembers(byte[] bytes, int offset) {
+        int count = ConstantPoolScanner.readUnsignedShort(bytes, offset);
+        offset += 2;
+        for (int i = 0; i < count; i++) {
+            int attributeCount = ConstantPoolScanner.readUnsignedShort(bytes, offset + 6);
+            offset += 8;
+            for (int j = 0; j < attributeCount; j++) {
+                offset += 6 + ConstantPoolScanner.readInt(bytes, offset + 2);
+            }
+        }
+        return offset;
+    }
+
+    // Skips an annotation's element-value pairs, starting just after its type, returning the offset after them.
+    private static int skipAnnotationBody(byte[] bytes, int offset) throws IOException {
+        int pairs = ConstantPoolScanner.readUnsignedShort(bytes, offset);
+        offset += 2;
+        for (int i = 0; i < pairs; i++) {
+            offset = skipElementValue(bytes, offset + 2);
+        }
+        return offset;
+    }
+
+    private static int skipElementValue(byte[] bytes, int offset) throws IOException {
+        switch (bytes[offset]) {
+            case 'B':
+            case 'C':
+            case 'D':
+            case 'F':
+            case 'I':
+            case 'J':
+            case 'S':
+            case 'Z':
+            case 's':
+            case 'c':
+                return offset + 3;
+            case 'e':
+                return offset + 5;
+            case '@':
+                return skipAnnotationBody(bytes, offset + 3);
+            case '[':
+                int count = ConstantPoolScanner.readUnsignedShort(bytes, offset + 1);
+                offset += 3;
+                for (int i = 0; i < count; i++) {
+                    offset = skipElementValue(bytes, offset);
+                }
+                return offset;
+            default:
+                throw new IOException("unknown annotation element tag " + (char) bytes[offset]);
+        }
+    }
+
+    static ClassIndex load(File file, String stamp) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(stamp)) {
+                return null;
+            }
+            int count = in.readInt();
+            Map<String, String> superclasses = new HashMap<>(count * 2);
+            Map<String, List<String>> interfaces = new HashMap<>(count * 2);
+            Map<String, List<String>> annotations = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                String superName = in.readUTF();
+                superclasses.put(name, superName.isEmpty() ? null : superName);
+                interfaces.put(name, readList(in));
+                annotations.put(name, readList(in));
+            }
+            return new ClassIndex(superclasses, interfaces, annotations);
+        } catch (IOException | RuntimeException ex) {
+            log.debug("Unable to read class index {}", file, ex);
+            return null;
+        }
+    }
+
+    static void save(File file, String stamp, ClassIndex index) throws IOException {
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(stamp);
+                out.writeInt(index.getClasses().size());
+                for (String name : index.getClasses()) {
+                    String superName = index.getSuperclass(name);
+                    out.writeUTF(name);
+                    out.writeUTF(superName == null ? "" : superName);
+                    writeList(out, index.getInterfaces(name));
+                    writeList(out, index.getAnnotations(name));
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    private static List<String> readList(DataInputStream in) throws IOException {
+        int size = in.readUnsignedShort();
+        if (size == 0) {
+            return Collections.emptyList();
+        }
+        List<String> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(in.readUTF());
+        }
+        return list;
+    }
+
+    private static void writeList(DataOutputStream out, List<String> list) throws IOException {
+        out.writeShort(list.size());
+        for (String value : list) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static final class Parsed {
+        private final String name;
+        private String superName;
+        private final List<String> interfaces = new ArrayList<>(2);
+        private final List<String> annotations = new ArrayList<>(0);
+
+        private Parsed(String name) {
+            this.name = name;
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package io.drakon.talon.internal;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apiguardian.api.API;
+
+/**
+ * Records the order in which a {@link TalonClassLoader} defines classes, and reads recordings back for replay.
+ * <p>
+ * The profile is a text file with a header line, then one line per class in the order they were defined:
+ * <pre>
+ * # talon-profile 1
+ * &lt;class name&gt; &lt;micros since loader start&gt; &lt;micros spent reading and transforming&gt;
+ * </pre>
+ * Only the class names are needed for replay; the timings are there to help find what's slow.
+ */
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon"})
+public class ClassLoadProfile {
+
+    private static final String HEADER = "# talon-profile 1";
+
+    private final long origin = System.nanoTime();
+    private final ConcurrentLinkedQueue<String> lines = new ConcurrentLinkedQueue<>();
+
+    void record(String name, long prepareNanos) {
+        lines.add(name + ' ' + (System.nanoTime() - origin) / 1000 + ' ' + prepareNanos / 1000);
+    }
+
+    /**
+     * Writes everything recorded so far, replacing any existing file.
+     *
+     * @param file The profile file to write.
+     * @throws IOException if the file could not be written.
+     */
+    public void write(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(file.getName(), ".tmp", parent);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            writer.write(HEADER);
+            writer.write('\n');
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads the class names from a recorded profile, in the order they were defined.
+     *
+     * @param file The profile file to read.
+     * @return The recorded class names.
+     * @throws IOException if the file could not be read or isn't a profile.
+     */
+    public static List<String> read(File file) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (!HEADER.equals(line)) {
+                throw new IOException("not a Talon class-load profile: " + file);
+            }
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (!line.isEmpty()) {
+                    names.add(space == -1 ? line : line.substring(0, space));
+                }
+            }
+        }
+        return names;
+    }
+
+}
@@ -0,0 +1,156 @@
+package io.drakon.talon.internal;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apiguardian.api.API;
+
+/**
+ * Staging area for class bytes which have been read and transformed ahead of demand, but not yet defined.
+ * <p>
+ * Background workers {@link #stage(String, Supplier, boolean)} classes, and {@link TalonClassLoader#findClass(String)}
+ * {@link #claim(String)}s them. Each class is prepared at most once: staging claims the name before doing any work, so
+ * two workers never prepare the same class, and claiming a class which is still being prepared waits for the worker
+ * rather than duplicating its effort. A claimed name stays reserved until it's {@link #release(String)}d, which the
+ * loader only does once the class is defined, so nothing can stage it again in between. Callers should still check the
+ * class hasn't already been defined from inside the prepare function, after staging has reserved the name.
+ * <p>
+ * Speculative entries (guesses at what will be needed soon) are bounded: once more than the limit have been staged, the
+ * oldest are evicted, so mispredictions don't pin memory for the lifetime of the loader.
+ * <p>
+ * Defining always happens on demand, on the thread which asked for the class, so staging has no visible effect beyond
+ * timing.
+ */
+@Slf4j
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon.internal"})
+public class ClassStaging {
+
+    // Marks a name being defined by the loader. Compared by identity.
+    private static final CompletableFuture<byte[]> CLAIMED = CompletableFuture.completedFuture(null);
+
+    private final Map<String, CompletableFuture<byte[]>> entries = new ConcurrentHashMap<>();
+    private final int speculativeLimit;
+    // Oldest first. May include entries which have since been claimed; they're skipped when evicting.
+    private final Queue<Speculative> speculative = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger speculativeCount = new AtomicInteger();
+
+    /**
+     * @param speculativeLimit The maximum number of speculative entries to keep.
+     */
+    public ClassStaging(int speculativeLimit) {
+        this.speculativeLimit = Math.max(1, speculativeLimit);
+    }
+
+    /**
+     * Prepares a class on the calling thread, unless it has already been staged or claimed.
+     *
+     * @param name        The full class name.
+     * @param prepare     Reads and transforms the class, returning the bytes to define or null if unavailable.
+     * @param speculative True if the class may never be needed, so can be evicted to make room for newer guesses.
+     * @return True if this call prepared the class.
+     */
+    public boolean stage(String name, Supplier<byte[]> prepare, boolean speculative) {
+        if (entries.containsKey(name)) {
+            return false;
+        }
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        if (entries.putIfAbsent(name, future) != null) {
+            return false;
+        }
+        if (speculative) {
+            this.speculative.add(new Speculative(name, future));
+            if (speculativeCount.incrementAndGet() > speculativeLimit) {
+                evictOldest();
+            }
+        }
+        byte[] bytes;
+        try {
+            bytes = prepare.get();
+        } catch (Throwable t) {
+            // The loading thread will redo the work inline, so the failure is reported where it belongs.
+            log.debug("Unable to prepare class {} ahead of time", name, t);
+            bytes = null;
+        }
+        future.complete(bytes);
+        if (bytes == null) {
+            // Nothing worth keeping; anything which claimed it in the meantime will prepare it inline.
+            entries.remove(name, future);
+        }
+        return true;
+    }
+
+    /**
+     * Reserves a class for defining, taking any prepared bytes and waiting if a worker is currently preparing it.
+     * Nothing can be staged under the name until it's released.
+     *
+     * @param name The full class name.
+     * @return The prepared bytes, or null if the class wasn't staged or couldn't be prepared.
+     */
+    public byte[] claim(String name) {
+        CompletableFuture<byte[]> future = entries.put(name, CLAIMED);
+        return future == null ? null : future.join();
+    }
+
+    /**
+     * Releases a class reserved by {@link #claim(String)}.
+     *
+     * @param name The full class name.
+     */
+    public void release(String name) {
+        entries.remove(name, CLAIMED);
+    }
+
+    /**
+     * @return The number of classes staged or claimed, including any still being prepared.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @param name The full class name.
+     * @return True if the class has been staged or claimed.
+     */
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * Discards everything staged. Workers still preparing a class finish, but their result is dropped.
+     */
+    public void clear() {
+        entries.clear();
+        speculative.clear();
+        speculativeCount.set(0);
+    }
+
+    private void evictOldest() {
+        Speculative oldest = speculative.poll();
+        if (oldest == null) {
+            return;
+        }
+        speculativeCount.decrementAndGet();
+        if (entries.remove(oldest.name, oldest.future)) {
+            log.trace("Evicted unused prefetched class {}", oldest.name);
+        }
+    }
+
+    private static final class Speculative {
+
+        private final String name;
+        private final CompletableFuture<byte[]> future;
+
+        private Speculative(String name, CompletableFuture<byte[]> future) {
+            this.name = name;
+            this.future = future;
+        }
+
+    }
+
+}
@@ -0,0 +1,514 @@
+package io.drakon.talon.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apiguardian.api.API;
+
+/**
+ * Index of every class file on the application classpath, built once per JVM, mapping entry names (e.g.
+ * <code>io/drakon/talon/Talon.class</code>) directly to their location.
+ * <p>
+ * Jars are memory mapped and their central directories parsed directly, so reading an entry is a hash lookup followed
+ * by a copy or inflate into an array of exactly the right size, instead of a linear search through the system
+ * classloader's URLs and a stream copy into a growing buffer. Directories are walked once and files read with their
+ * known size.
+ * <p>
+ * Precedence matches the system classloader, including jars pulled in via manifest <code>Class-Path</code>. Jars which
+ * can't be handled directly (Zip64, multi-release, encrypted entries) still have their entry names indexed, but are
+ * marked so that reads of those entries return null and the caller falls back to the system classloader. Signed jars
+ * are treated the same way, as reading the mapping directly would bypass signature verification. If the system
+ * classloader has been replaced, the index is left empty.
+ * <p>
+ * Loaders {@link #retain()} the index while they use it. Once the last one has {@link #release()}d it, the jar mappings
+ * are dropped so that the JVM can unmap them (once any buffers handed out by {@link #readBuffer(String)} are also
+ * unreachable; unmapping them explicitly would break those buffers). The entries themselves are kept, and jars are
+ * mapped again on their next read.
+ */
+@Slf4j
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon.internal"})
+public final class ClasspathIndex {
+
+    private static final Set<String> KNOWN_APP_LOADERS = new HashSet<>(Arrays.asList(
+            "sun.misc.Launcher$AppClassLoader",
+            "jdk.internal.loader.ClassLoaders$AppClassLoader"
+    ));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+    private final Map<String, Entry> entries;
+    private final List<File> roots;
+    private final List<MappedJar> jars;
+    private final AtomicInteger users = new AtomicInteger();
+
+    ClasspathIndex(Map<String, Entry> entries, List<File> roots, List<MappedJar> jars) {
+        this.entries = entries;
+        this.roots = roots;
+        this.jars = jars;
+    }
+
+    /**
+     * @return The shared index of the system classpath.
+     */
+    public static ClasspathIndex system() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Registers a user of this index, which must {@link #release()} it once done.
+     */
+    public void retain() {
+        users.incrementAndGet();
+    }
+
+    /**
+     * Releases a use registered with {@link #retain()}. When nothing is using the index any more, the jar mappings are
+     * dropped; see the class documentation.
+     */
+    public void release() {
+        if (users.decrementAndGet() == 0) {
+            for (MappedJar jar : jars) {
+                jar.unmap();
+            }
+            log.debug("Released mappings of {} classpath jars", jars.size());
+        }
+    }
+
+    /**
+     * @param entryName The entry name, e.g. <code>io/drakon/talon/Talon.class</code>.
+     * @return True if the entry is on the classpath and can be read directly from this index.
+     */
+    public boolean contains(String entryName) {
+        Entry entry = entries.get(entryName);
+        return entry != null && entry != Entry.FALLBACK;
+    }
+
+    /**
+     * @return The names of all class file entries on the classpath, including those which must be read via fallback.
+     */
+    public Set<String> entryNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * Reads a class file entry as a buffer. Entries stored uncompressed in a jar are returned as a read-only view of the
+     * mapped jar, without copying; anything else is read onto the heap as with {@link #read(String)}.
+     *
+     * @param entryName The entry name, e.g. <code>io/drakon/talon/Talon.class</code>.
+     * @return The entry bytes between the buffer's position and limit, or null if the entry isn't indexed or must be
+     * read via the system classloader.
+     * @throws IOException if the entry could not be read.
+     */
+    public ByteBuffer readBuffer(String entryName) throws IOException {
+        Entry entry = entries.get(entryName);
+        if (entry == null || entry == Entry.FALLBACK) {
+            return null;
+        }
+        return entry.readBuffer();
+    }
+
+    /**
+     * @return The classpath roots (jars and directories) which were indexed, in precedence order, including those
+     * pulled in via manifest <code>Class-Path</code>.
+     */
+    public List<File> getRoots() {
+        return roots;
+    }
+
+    /**
+     * Reads a class file entry.
+     *
+     * @param entryName The entry name, e.g. <code>io/drakon/talon/Talon.class</code>.
+     * @return The entry bytes, or null if the entry isn't indexed or must be read via the system classloader.
+     * @throws IOException if the entry could not be read.
+     */
+    public byte[] read(String entryName) throws IOException {
+        Entry entry = entries.get(entryName);
+        if (entry == null || entry == Entry.FALLBACK) {
+            return null;
+        }
+        return entry.read();
+    }
+
+    private static ClasspathIndex build() {
+        ClassLoader system = ClassLoader.getSystemClassLoader();
+        if (!KNOWN_APP_LOADERS.contains(system.getClass().getName())) {
+            log.debug("Custom system classloader {} in use; classpath index disabled.", system.getClass().getName());
+            return new ClasspathIndex(Collections.emptyMap(), Collections.emptyList(), Collections.emptyList());
+        }
+
+        long start = System.nanoTime();
+        List<File> roots = Arrays.stream(System.getProperty("java.class.path", "").split(File.pathSeparator))
+                .filter(it -> !it.isEmpty())
+                .map(File::new)
+                .collect(Collectors.toList());
+
+        // Parse the classpath roots in parallel, then merge sequentially to keep the system loader's precedence.
+        Map<File, Source> parsed = new HashMap<>();
+        roots.parallelStream()
+                .map(ClasspathIndex::parse)
+                .collect(Collectors.toList())
+                .forEach(it -> parsed.put(it.root, it));
+
+        Map<String, Entry> entries = new HashMap<>();
+        List<MappedJar> jars = new ArrayList<>();
+        Set<File> seen = new LinkedHashSet<>();
+        Deque<File> queue = new ArrayDeque<>(roots);
+        while (!queue.isEmpty()) {
+            File root = queue.removeFirst();
+            if (!seen.add(root)) {
+                continue;
+            }
+            Source source = parsed.containsKey(root) ? parsed.get(root) : parse(root);
+            for (Map.Entry<String, Entry> entry : source.entries.entrySet()) {
+                entries.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+            if (source.jar != null) {
+                jars.add(source.jar);
+            }
+            // Manifest Class-Path entries are searched immediately after the jar that references them.
+            List<File> extra = source.manifestClassPath;
+            for (int i = extra.size() - 1; i >= 0; i--) {
+                queue.addFirst(extra.get(i));
+            }
+        }
+
+        log.debug("Indexed {} classes from {} classpath roots in {}ms", entries.size(), seen.size(),
+                (System.nanoTime() - start) / 1_000_000);
+        return new ClasspathIndex(entries, Collections.unmodifiableList(new ArrayList<>(seen)), jars);
+    }
+
+    private static Source parse(File root) {
+        Source source = new Source(root);
+        try {
+            if (root.isDirectory()) {
+                parseDirectory(source);
+            } else if (root.isFile()) {
+                parseJar(source);
+            }
+        } catch (IOException | RuntimeException ex) {
+            log.debug("Unable to index classpath root {}; it will be read via the system classloader.", root, ex);
+            source.entries.clear();
+            source.manifestClassPath.clear();
+            if (root.isFile()) {
+                listWithJarFile(source);
+            }
+        }
+        return source;
+    }
+
+    // Still record which classes a jar we can't parse provides, so it keeps its precedence over later roots.
+    private static void listWithJarFile(Source source) {
+        try (JarFile jar = new JarFile(source.root)) {
+            jar.stream()
+                    .filter(it -> it.getName().endsWith(".class"))
+                    .forEach(it -> source.entries.put(it.getName(), Entry.FALLBACK));
+            Manifest manifest = jar.getManifest();
+            if (manifest != null) {
+                source.manifestClassPath.addAll(manifestClassPath(source.root, manifest));
+            }
+        } catch (IOException | RuntimeException ex) {
+            log.debug("Unable to list classpath root {}", source.root, ex);
+        }
+    }
+
+    private static void parseDirectory(Source source) throws IOException {
+        Path root = source.root.toPath();
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(it -> it.toString().endsWith(".class")).forEach(it -> {
+                String name = root.relativize(it).toString().replace(File.separatorChar, '/');
+                source.entries.put(name, new FileEntry(it));
+            });
+        }
+    }
+
+    private static void parseJar(Source source) throws IOException {
+        MappedByteBuffer mapped = map(source.root.toPath());
+        MappedJar jar = new MappedJar(source.root.toPath(), mapped);
+        ByteBuffer buf = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+        int eocd = findEndOfCentralDirectory(buf);
+        int total = buf.getShort(eocd + 10) & 0xFFFF;
+        long cdOffset = buf.getInt(eocd + 16) & 0xFFFFFFFFL;
+        if (total == 0xFFFF || cdOffset == 0xFFFFFFFFL) {
+            throw new IOException("Zip64 jars are not supported");
+        }
+
+        boolean fallback = false;
+        JarEntry manifest = null;
+        int pos = (int) cdOffset;
+        for (int i = 0; i < total; i++) {
+            if (buf.getInt(pos) != 0x02014b50) {
+                throw new IOException("bad central directory entry");
+            }
+            int flags = buf.getShort(pos + 8) & 0xFFFF;
+            int method = buf.getShort(pos + 10) & 0xFFFF;
+            long compressedSize = buf.getInt(pos + 20) & 0xFFFFFFFFL;
+            long size = buf.getInt(pos + 24) & 0xFFFFFFFFL;
+            int nameLength = buf.getShort(pos + 28) & 0xFFFF;
+            int extraLength = buf.getShort(pos + 30) & 0xFFFF;
+            int commentLength = buf.getShort(pos + 32) & 0xFFFF;
+            long headerOffset = buf.getInt(pos + 42) & 0xFFFFFFFFL;
+            byte[] nameBytes = new byte[nameLength];
+            ByteBuffer nameBuf = buf.duplicate();
+            nameBuf.position(pos + 46);
+            nameBuf.get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            pos += 46 + nameLength + extraLength + commentLength;
+
+            if (isSignature(name)) {
+                fallback = true; // Signed jar; reading through JarFile verifies each entry against its signature.
+            }
+            if (name.startsWith("META-INF/versions/")) {
+                fallback = true; // Multi-release jar; let the JDK pick the right version of each class.
+                continue;
+            }
+            boolean usable = (flags & 1) == 0 && (method == 0 || method == 8) && size != 0xFFFFFFFFL
+                    && compressedSize != 0xFFFFFFFFL && headerOffset != 0xFFFFFFFFL;
+            JarEntry entry = usable ? new JarEntry(jar, method, (int) compressedSize, (int) size, (int) headerOffset) : Entry.FALLBACK;
+            if (name.endsWith(".class")) {
+                source.entries.put(name, entry);
+            } else if (name.equals("META-INF/MANIFEST.MF") && usable) {
+                manifest = entry;
+            }
+        }
+
+        if (fallback) {
+            source.entries.replaceAll((name, entry) -> Entry.FALLBACK);
+        }
+        if (manifest != null) {
+            source.manifestClassPath.addAll(manifestClassPath(source.root, new Manifest(new ByteArrayInputStream(manifest.read()))));
+        }
+        if (!fallback) {
+            source.jar = jar;
+        }
+    }
+
+    private static MappedByteBuffer map(Path jar) throws IOException {
+        try (FileChannel channel = FileChannel.open(jar, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("jar too large to map");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    // Signature files sit directly in META-INF, and JarFile matches them case-insensitively.
+    private static boolean isSignature(String name) {
+        return name.length() > 12 && name.regionMatches(true, 0, "META-INF/", 0, 9) && name.indexOf('/', 9) == -1
+                && name.regionMatches(true, name.length() - 3, ".SF", 0, 3);
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer buf) throws IOException {
+        int limit = Math.max(0, buf.limit() - 22 - 0xFFFF);
+        for (int pos = buf.limit() - 22; pos >= limit; pos--) {
+            if (buf.getInt(pos) == 0x06054b50) {
+                return pos;
+            }
+        }
+        throw new IOException("no end of central directory record");
+    }
+
+    private static List<File> manifestClassPath(File jar, Manifest manifest) throws IOException {
+        String classPath = manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+        if (classPath == null) {
+            return Collections.emptyList();
+        }
+        List<File> out = new ArrayList<>();
+        URL base = jar.toURI().toURL();
+        for (String element : classPath.trim().split("\\s+")) {
+            try {
+                URL url = new URL(base, element);
+                if (url.getProtocol().equals("file")) {
+                    out.add(new File(url.toURI()));
+                }
+            } catch (MalformedURLException | URISyntaxException | IllegalArgumentException ex) {
+                log.debug("Ignoring invalid manifest Class-Path element '{}' in {}", element, jar);
+            }
+        }
+        return out;
+    }
+
+    private static final class Holder {
+        private static final ClasspathIndex INSTANCE = build();
+    }
+
+    private static final class Source {
+        private final File root;
+        private final Map<String, Entry> entries = new HashMap<>();
+        private final List<File> manifestClassPath = new ArrayList<>();
+        private MappedJar jar;
+
+        private Source(File root) {
+            this.root = root;
+        }
+    }
+
+    abstract static class Entry {
+        static final JarEntry FALLBACK = new JarEntry(null, -1, 0, 0, 0);
+
+        abstract byte[] read() throws IOException;
+
+        ByteBuffer readBuffer() throws IOException {
+            return ByteBuffer.wrap(read());
+        }
+    }
+
+    private static final class FileEntry extends Entry {
+        private final Path path;
+
+        private FileEntry(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        byte[] read() throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("class file too large: " + path);
+                }
+                ByteBuffer out = ByteBuffer.allocate((int) size);
+                while (out.hasRemaining()) {
+                    if (channel.read(out) < 0) {
+                        throw new IOException("class file truncated while reading: " + path);
+                    }
+                }
+                return out.array();
+            }
+        }
+    }
+
+    // A jar's mapping, dropped when the index is released and mapped again on demand.
+    private static final class MappedJar {
+        private final Path path;
+        private final int size;
+        private volatile MappedByteBuffer mapped;
+
+        private MappedJar(Path path, MappedByteBuffer mapped) {
+            this.path = path;
+            this.size = mapped.capacity();
+            this.mapped = mapped;
+        }
+
+        private MappedByteBuffer get() throws IOException {
+            MappedByteBuffer buf = mapped;
+            if (buf == null) {
+                synchronized (this) {
+                    buf = mapped;
+                    if (buf == null) {
+                        buf = map(path);
+                        if (buf.capacity() != size) {
+                            throw new IOException("jar changed since it was indexed: " + path);
+                        }
+                        mapped = buf;
+                    }
+                }
+            }
+            return buf;
+        }
+
+        private synchronized void unmap() {
+            mapped = null;
+        }
+    }
+
+    private static final class JarEntry extends Entry {
+        private final MappedJar jar;
+        private final int method;
+        private final int compressedSize;
+        private final int size;
+        private final int headerOffset;
+
+        private JarEntry(MappedJar jar, int method, int compressedSize, int size, int headerOffset) {
+            this.jar = jar;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.headerOffset = headerOffset;
+        }
+
+        @Override
+        ByteBuffer readBuffer() throws IOException {
+            if (method != 0) {
+                return super.readBuffer();
+            }
+            // Stored entries are served straight from the mapping, without copying onto the heap.
+            ByteBuffer buf = jar.get().asReadOnlyBuffer();
+            buf.position(dataOffset(buf.duplicate().order(ByteOrder.LITTLE_ENDIAN)));
+            buf.limit(buf.position() + size);
+            return buf.slice();
+        }
+
+        @Override
+        byte[] read() throws IOException {
+            ByteBuffer buf = jar.get().duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            buf.position(dataOffset(buf));
+
+            byte[] out = new byte[size];
+            if (method == 0) {
+                buf.get(out);
+                return out;
+            }
+
+            // Inflater only takes arrays on Java 8, so stage the compressed bytes in a reusable per-thread buffer.
+            byte[] scratch = SCRATCH.get();
+            if (scratch.length < compressedSize + 1) {
+                scratch = new byte[compressedSize + 1];
+                SCRATCH.set(scratch);
+            }
+            buf.get(scratch, 0, compressedSize);
+            scratch[compressedSize] = 0; // Dummy byte required by nowrap inflaters.
+
+            Inflater inflater = INFLATERS.get();
+            inflater.reset();
+            inflater.setInput(scratch, 0, compressedSize + 1);
+            try {
+                int read = 0;
+                while (read < size) {
+                    int n = inflater.inflate(out, read, size - read);
+                    if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    read += n;
+                }
+                if (read != size) {
+                    throw new IOException("jar entry truncated while inflating");
+                }
+            } catch (DataFormatException ex) {
+                throw new IOException("corrupt jar entry", ex);
+            }
+            return out;
+        }
+
+        private int dataOffset(ByteBuffer buf) throws IOException {
+            if (buf.getInt(headerOffset) != 0x04034b50) {
+                throw new IOException("bad local file header");
+            }
+            return headerOffset + 30 + (buf.getShort(headerOffset + 26) & 0xFFFF) + (buf.getShort(headerOffset + 28) & 0xFFFF);
+        }
+    }
+
+}
@@ -0,0 +1,302 @@
+package io.drakon.talon.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import org.apiguardian.api.API;
+
+/**
+ * Fast scanner over the constant pool of a class file, checking for the presence of a fixed set of UTF8 entries.
+ * <p>
+ * Every symbol a transformer can depend on (string constants, class references, member references) ends up as one or
+ * more UTF8 entries in the constant pool, so checking for those is a cheap, conservative prefilter: if the entries
+ * aren't present, the class cannot reference the symbol. The scan walks the pool in place without building any ASM
+ * structures, and compares only entries whose length matches a target.
+ * <p>
+ * It can also list the classes a class file references, for prefetching.
+ */
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon.internal"})
+public class ConstantPoolScanner {
+
+    private final byte[][] targets;
+    private final int[][] byLength;
+
+    /**
+     * @param utf8Targets The strings to look for, as they would appear in the constant pool (e.g. internal names).
+     */
+    public ConstantPoolScanner(List<String> utf8Targets) {
+        this.targets = new byte[utf8Targets.size()][];
+        int maxLength = 0;
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = encode(utf8Targets.get(i));
+            maxLength = Math.max(maxLength, targets[i].length);
+        }
+
+        List<List<Integer>> lengths = new ArrayList<>();
+        for (int i = 0; i <= maxLength; i++) {
+            lengths.add(null);
+        }
+        for (int i = 0; i < targets.length; i++) {
+            int len = targets[i].length;
+            if (lengths.get(len) == null) {
+                lengths.set(len, new ArrayList<>());
+            }
+            lengths.get(len).add(i);
+        }
+        this.byLength = new int[maxLength + 1][];
+        for (int i = 0; i <= maxLength; i++) {
+            if (lengths.get(i) != null) {
+                byLength[i] = lengths.get(i).stream().mapToInt(Integer::intValue).toArray();
+            }
+        }
+    }
+
+    /**
+     * Scans a class file.
+     *
+     * @param classBytes The class file.
+     * @return The indices of the targets found, or null if the constant pool could not be parsed (in which case the
+     * caller should assume everything is present).
+     */
+    public BitSet scan(byte[] classBytes) {
+        if (classBytes.length < 10) {
+            return null;
+        }
+        BitSet found = new BitSet(targets.length);
+        int remaining = targets.length;
+        int count = readUnsignedShort(classBytes, 8);
+        int offset = 10;
+        try {
+            for (int i = 1; i < count; i++) {
+                int tag = classBytes[offset];
+                switch (tag) {
+                    case 1: // Utf8
+                        int length = readUnsignedShort(classBytes, offset + 1);
+                        if (length < byLength.length && byLength[length] != null) {
+                            remaining -= match(classBytes, offset + 3, length, found);
+                            if (remaining == 0) {
+                                return found;
+                            }
+                        }
+                        offset += 3 + length;
+                        break;
+                    case 7: // Class
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        offset += 3;
+                        break;
+                    case 15: // MethodHandle
+                        offset += 4;
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        offset += 5;
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        offset += 9;
+                        i++;
+                        break;
+                    default:
+                        return null;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            return null;
+        }
+        return found;
+    }
+
+    /**
+     * Lists the classes referenced by a class file's constant pool: its superclass and interfaces, the owners of any
+     * fields and methods it uses, and any classes it names directly (e.g. in casts, <code>instanceof</code> or class
+     * literals). Array references are reduced to their element class, and primitive arrays are skipped.
+     *
+     * @param classBytes The class file.
+     * @return The referenced classes as binary names (e.g. <code>java.lang.String</code>), including the class itself,
+     * or an empty list if the constant pool could not be parsed.
+     */
+    public static List<String> classReferences(byte[] classBytes) {
+        int[] offsets = offsets(classBytes);
+        if (offsets == null) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<>();
+        try {
+            for (int i = 1; i < offsets.length; i++) {
+                if (offsets[i] == 0 || classBytes[offsets[i]] != 7) {
+                    continue;
+                }
+                String name = utf8(classBytes, offsets, readUnsignedShort(classBytes, offsets[i] + 1));
+                if (name == null) {
+                    return Collections.emptyList();
+                }
+                int start = 0;
+                while (start < name.length() && name.charAt(start) == '[') {
+                    start++;
+                }
+                if (start > 0) {
+                    if (name.charAt(start) != 'L') {
+                        continue; // Primitive array.
+                    }
+                    name = name.substring(start + 1, name.length() - 1);
+                }
+                names.add(name.replace('/', '.'));
+            }
+        } catch (IndexOutOfBoundsException | IOException ex) {
+            return Collections.emptyList();
+        }
+        return names;
+    }
+
+    /**
+     * Finds the offset of each constant pool entry in a class file.
+     *
+     * @param classBytes The class file.
+     * @return The offset of the tag of each entry by index, with 0 for unusable indices (0, and the second half of
+     * longs and doubles) except that index 0 holds the offset just past the end of the pool. Null if the pool could not
+     * be parsed.
+     */
+    static int[] offsets(byte[] classBytes) {
+        if (classBytes.length < 10) {
+            return null;
+        }
+        int count = readUnsignedShort(classBytes, 8);
+        int[] offsets = new int[count];
+        int offset = 10;
+        try {
+            for (int i = 1; i < count; i++) {
+                offsets[i] = offset;
+                switch (classBytes[offset]) {
+                    case 1: // Utf8
+                        offset += 3 + readUnsignedShort(classBytes, offset + 1);
+                        break;
+                    case 7: // Class
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        offset += 3;
+                        break;
+                    case 15: // MethodHandle
+                        offset += 4;
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        offset += 5;
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        offset += 9;
+                        i++;
+                        break;
+                    default:
+                        return null;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            return null;
+        }
+        offsets[0] = offset;
+        return offsets;
+    }
+
+    /**
+     * Reads the class name of a CONSTANT_Class entry.
+     *
+     * @return The internal name, or null if the index isn't a valid class entry.
+     */
+    static String className(byte[] classBytes, int[] offsets, int index) throws IOException {
+        if (index <= 0 || index >= offsets.length || offsets[index] == 0 || classBytes[offsets[index]] != 7) {
+            return null;
+        }
+        return utf8(classBytes, offsets, readUnsignedShort(classBytes, offsets[index] + 1));
+    }
+
+    /**
+     * Reads a CONSTANT_Utf8 entry.
+     *
+     * @return The string, or null if the index isn't a valid UTF8 entry.
+     */
+    static String utf8(byte[] classBytes, int[] offsets, int index) throws IOException {
+        if (index <= 0 || index >= offsets.length || offsets[index] == 0 || classBytes[offsets[index]] != 1) {
+            return null;
+        }
+        return decode(classBytes, offsets[index] + 1);
+    }
+
+    // Class names are almost always ASCII, so skip the modified UTF-8 decoder unless something needs it.
+    private static String decode(byte[] classBytes, int offset) throws IOException {
+        int length = readUnsignedShort(classBytes, offset);
+        for (int i = 0; i < length; i++) {
+            if (classBytes[offset + 2 + i] < 0) {
+                return new DataInputStream(new ByteArrayInputStream(classBytes, offset, length + 2)).readUTF();
+            }
+        }
+        return new String(classBytes, offset + 2, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private int match(byte[] classBytes, int start, int length, BitSet found) {
+        int matched = 0;
+        for (int idx : byLength[length]) {
+            if (found.get(idx)) {
+                continue;
+            }
+            byte[] target = targets[idx];
+            int i = 0;
+            while (i < length && classBytes[start + i] == target[i]) {
+                i++;
+            }
+            if (i == length) {
+                found.set(idx);
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    static int readUnsignedShort(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+    }
+
+    static int readInt(byte[] bytes, int offset) {
+        return (readUnsignedShort(bytes, offset) << 16) | readUnsignedShort(bytes, offset + 2);
+    }
+
+    // The constant pool uses modified UTF-8, which is exactly what DataOutput#writeUTF produces after its length prefix.
+    private static byte[] encode(String value) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new DataOutputStream(bytes).writeUTF(value);
+            byte[] raw = bytes.toByteArray();
+            byte[] out = new byte[raw.length - 2];
+            System.arraycopy(raw, 2, out, 0, out.length);
+            return out;
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("unencodable constant pool symbol: " + value, ex);
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package io.drakon.talon.internal;
+
+import org.apiguardian.api.API;
+
+/**
+ * Allocation-free glob matcher over dotted class and package names.
+ * <p>
+ * <code>*</code> matches any run of characters within a single name segment (i.e. not crossing a '.'), <code>**</code>
+ * matches any run of characters including '.', and <code>?</code> matches a single non-'.' character. Everything else
+ * matches literally.
+ */
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon.internal"})
+public final class Glob {
+
+    private final String pattern;
+
+    public Glob(String pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * @param pattern The string to check.
+     * @return True if the string contains any glob metacharacters.
+     */
+    public static boolean isGlob(String pattern) {
+        return pattern.indexOf('*') != -1 || pattern.indexOf('?') != -1;
+    }
+
+    /**
+     * @param name The name to match against.
+     * @return True if the whole name matches this glob.
+     */
+    public boolean matches(String name) {
+        return match(0, name, 0, name.length());
+    }
+
+    /**
+     * Matches the glob against the name and each of its enclosing packages, so a glob naming a package also matches
+     * everything beneath it.
+     *
+     * @param name The full class name.
+     * @return True if the whole name, or any '.'-delimited prefix of it, matches this glob.
+     */
+    public boolean matchesPackageOf(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) == '.' && match(0, name, 0, i)) {
+                return true;
+            }
+        }
+        return matches(name);
+    }
+
+    private boolean match(int pi, String name, int ni, int end) {
+        while (pi < pattern.length()) {
+            char pc = pattern.charAt(pi);
+            if (pc == '*') {
+                boolean crossesDots = pi + 1 < pattern.length() && pattern.charAt(pi + 1) == '*';
+                int next = crossesDots ? pi + 2 : pi + 1;
+                // Try every possible length for the star, shortest first.
+                for (int i = ni; i <= end; i++) {
+                    if (match(next, name, i, end)) {
+                        return true;
+                    }
+                    if (i < end && !crossesDots && name.charAt(i) == '.') {
+                        return false;
+                    }
+                }
+                return false;
+            }
+            if (ni >= end) {
+                return false;
+            }
+            char nc = name.charAt(ni);
+            if (pc == '?' ? nc == '.' : pc != nc) {
+                return false;
+            }
+            pi++;
+            ni++;
+        }
+        return ni == end;
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+}
@@ -0,0 +1,238 @@
+package io.drakon.talon.internal;
+
+import java.util.*;
+
+import static org.objectweb.asm.Opcodes.ASM6;
+
+import io.drakon.talon.Interest;
+import io.drakon.talon.Transformer;
+import org.apiguardian.api.API;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+
+/**
+ * Dispatch index compiled from the {@link Interest} declarations of a list of transformers. Given a class, it returns
+ * the set of transformer indices which should be invoked, so the cost per class scales with the number of interested
+ * transformers rather than the number registered.
+ * <p>
+ * Name-based selectors are answered with hash lookups (one per package level for package prefixes). Referenced symbols
+ * are then checked with a single {@link ConstantPoolScanner} pass, dropping transformers whose symbols are absent.
+ * Supertype and annotation selectors need the class header, which is only parsed if a transformer that could still
+ * match depends on it.
+ */
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon.internal"})
+public class InterestIndex {
+
+    private final int size;
+    private final BitSet always = new BitSet();
+    private final Map<String, BitSet> byClassName = new HashMap<>();
+    private final Map<String, BitSet> byPackage = new HashMap<>();
+    private final List<Glob> patterns = new ArrayList<>();
+    private final List<Integer> patternOwners = new ArrayList<>();
+    private final Map<String, BitSet> bySupertype = new HashMap<>();
+    private final Map<String, BitSet> byAnnotation = new HashMap<>();
+    private final BitSet headerDependent = new BitSet();
+    private final BitSet annotationDependent = new BitSet();
+    private final BitSet symbolDependent = new BitSet();
+    private final List<int[]> symbols = new ArrayList<>();
+    private final List<Integer> symbolOwners = new ArrayList<>();
+    private final ConstantPoolScanner scanner;
+
+    public InterestIndex(List<Transformer> transformers) {
+        this.size = transformers.size();
+        Map<String, Integer> utf8Targets = new LinkedHashMap<>();
+        for (int i = 0; i < transformers.size(); i++) {
+            Interest interest = transformers.get(i).getInterest();
+            if (interest == null) {
+                always.set(i);
+                continue;
+            }
+            if (interest.hasReferencedSymbols()) {
+                symbolDependent.set(i);
+                for (String str : interest.getReferencedStrings()) {
+                    addSymbol(utf8Targets, i, str);
+                }
+                for (String clazz : interest.getReferencedClasses()) {
+                    addSymbol(utf8Targets, i, clazz.replace('.', '/'));
+                }
+                for (String member : interest.getReferencedMembers()) {
+                    int hash = member.indexOf('#');
+                    if (hash == -1) {
+                        throw new IllegalArgumentException("referenced member must be owner#name: " + member);
+                    }
+                    addSymbol(utf8Targets, i, member.substring(0, hash).replace('.', '/'), member.substring(hash + 1));
+                }
+            }
+            if (interest.hasNoSelectors()) {
+                always.set(i);
+                continue;
+            }
+            for (String name : interest.getClassNames()) {
+                add(byClassName, name, i);
+            }
+            for (String pkg : interest.getPackagePrefixes()) {
+                add(byPackage, pkg.endsWith(".") ? pkg.substring(0, pkg.length() - 1) : pkg, i);
+            }
+            for (String pattern : interest.getClassPatterns()) {
+                patterns.add(new Glob(pattern));
+                patternOwners.add(i);
+            }
+            for (String supertype : interest.getSupertypes()) {
+                add(bySupertype, supertype.replace('.', '/'), i);
+                headerDependent.set(i);
+            }
+            for (String annotation : interest.getAnnotations()) {
+                add(byAnnotation, "L" + annotation.replace('.', '/') + ";", i);
+                headerDependent.set(i);
+                annotationDependent.set(i);
+            }
+        }
+        this.scanner = symbols.isEmpty() ? null : new ConstantPoolScanner(new ArrayList<>(utf8Targets.keySet()));
+    }
+
+    /**
+     * Checks whether any transformer in a range wasn't selected, but could be once an earlier transformer changes the
+     * class, because its interest depends on the class contents rather than just its name.
+     *
+     * @param selected The current selection.
+     * @param from     The first index to check.
+     * @param to       The index after the last to check.
+     * @return True if such a transformer is in the range.
+     */
+    public boolean hasUnselectedContentDependent(BitSet selected, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!selected.get(i) && (symbolDependent.get(i) || headerDependent.get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return True if every transformer is interested in every class, so selection can be skipped.
+     */
+    public boolean isTrivial() {
+        return always.cardinality() == size && symbolDependent.isEmpty();
+    }
+
+    /**
+     * Selects the transformers interested in a class.
+     *
+     * @param name       The full class name.
+     * @param pkgName    The package name.
+     * @param classBytes The class bytes, only parsed if needed.
+     * @return The indices of the interested transformers.
+     */
+    public BitSet select(String name, String pkgName, byte[] classBytes) {
+        BitSet selected = (BitSet) always.clone();
+        orInto(selected, byClassName.get(name));
+        if (!byPackage.isEmpty()) {
+            String pkg = pkgName;
+            while (!pkg.isEmpty()) {
+                orInto(selected, byPackage.get(pkg));
+                int dot = pkg.lastIndexOf('.');
+                pkg = dot == -1 ? "" : pkg.substring(0, dot);
+            }
+        }
+        for (int i = 0; i < patterns.size(); i++) {
+            int owner = patternOwners.get(i);
+            if (!selected.get(owner) && patterns.get(i).matches(name)) {
+                selected.set(owner);
+            }
+        }
+
+        BitSet rejected = new BitSet();
+        if (scanner != null) {
+            BitSet candidates = (BitSet) headerDependent.clone();
+            candidates.or(selected);
+            candidates.and(symbolDependent);
+            if (!candidates.isEmpty()) {
+                rejectMissingSymbols(classBytes, rejected);
+                selected.andNot(rejected);
+            }
+        }
+
+        if (hasUndecided(headerDependent, selected, rejected)) {
+            ClassReader reader = new ClassReader(classBytes);
+            BitSet matched = new BitSet();
+            orInto(matched, bySupertype.get(reader.getSuperName()));
+            for (String iface : reader.getInterfaces()) {
+                orInto(matched, bySupertype.get(iface));
+            }
+            if (hasUndecided(annotationDependent, matched, rejected)) {
+                reader.accept(new AnnotationCollector(matched), ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            }
+            matched.andNot(rejected);
+            selected.or(matched);
+        }
+        return selected;
+    }
+
+    private void rejectMissingSymbols(byte[] classBytes, BitSet rejected) {
+        BitSet found = scanner.scan(classBytes);
+        if (found == null) {
+            return; // Unparseable, so be conservative and keep everything.
+        }
+        BitSet satisfied = new BitSet();
+        for (int i = 0; i < symbols.size(); i++) {
+            boolean allPresent = true;
+            for (int target : symbols.get(i)) {
+                if (!found.get(target)) {
+                    allPresent = false;
+                    break;
+                }
+            }
+            if (allPresent) {
+                satisfied.set(symbolOwners.get(i));
+            }
+        }
+        rejected.or(symbolDependent);
+        rejected.andNot(satisfied);
+    }
+
+    private void addSymbol(Map<String, Integer> utf8Targets, int owner, String... parts) {
+        int[] ids = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            ids[i] = utf8Targets.computeIfAbsent(parts[i], it -> utf8Targets.size());
+        }
+        symbols.add(ids);
+        symbolOwners.add(owner);
+    }
+
+    private static boolean hasUndecided(BitSet dependent, BitSet selected, BitSet rejected) {
+        if (dependent.isEmpty()) {
+            return false;
+        }
+        BitSet undecided = (BitSet) dependent.clone();
+        undecided.andNot(selected);
+        undecided.andNot(rejected);
+        return !undecided.isEmpty();
+    }
+
+    private static void add(Map<String, BitSet> map, String key, int index) {
+        map.computeIfAbsent(key, it -> new BitSet()).set(index);
+    }
+
+    private static void orInto(BitSet target, BitSet source) {
+        if (source != null) {
+            target.or(source);
+        }
+    }
+
+    private class AnnotationCollector extends ClassVisitor {
+        private final BitSet selected;
+
+        private AnnotationCollector(BitSet selected) {
+            super(ASM6);
+            this.selected = selected;
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+            orInto(selected, byAnnotation.get(descriptor));
+            return null;
+        }
+    }
+
+}
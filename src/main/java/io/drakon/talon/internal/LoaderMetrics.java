@@ -0,0 +1,174 @@
+package io.drakon.talon.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.drakon.talon.Transformer;
+import org.apiguardian.api.API;
+
+/**
+ * Metrics recorded by a {@link TalonClassLoader}. Everything is recorded into {@link LongAdder}s, which stripe
+ * contended updates across cells, so that recording doesn't serialise parallel class loading.
+ */
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon"})
+public class LoaderMetrics implements LoaderMetricsMXBean {
+
+    private static final int HISTOGRAM_BUCKETS = 40; // Up to 2^39ns, about 9 minutes.
+
+    private final LongAdder classesDefined = new LongAdder();
+    private final LongAdder bootstrapClasses = new LongAdder();
+    private final LongAdder bootstrapCheckNanos = new LongAdder();
+    private final LongAdder parentFirstClasses = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder transformNanos = new LongAdder();
+    private final LongAdder defineNanos = new LongAdder();
+    private final LongAdder stagedClasses = new LongAdder();
+    private final LongAdder archivedClasses = new LongAdder();
+    private final Recorder[] transformers;
+
+    public LoaderMetrics(List<Transformer> transformers) {
+        this.transformers = new Recorder[transformers.size()];
+        for (int i = 0; i < this.transformers.length; i++) {
+            this.transformers[i] = new Recorder(transformers.get(i).toString());
+        }
+    }
+
+    void recordBootstrapCheck(long nanos, boolean found) {
+        bootstrapCheckNanos.add(nanos);
+        if (found) {
+            bootstrapClasses.increment();
+        }
+    }
+
+    void recordParentFirst() {
+        parentFirstClasses.increment();
+    }
+
+    void recordRead(long nanos) {
+        readNanos.add(nanos);
+    }
+
+    void recordTransform(long nanos) {
+        transformNanos.add(nanos);
+    }
+
+    void recordDefine(long nanos) {
+        defineNanos.add(nanos);
+        classesDefined.increment();
+    }
+
+    void recordStaged() {
+        stagedClasses.increment();
+    }
+
+    void recordArchived() {
+        archivedClasses.increment();
+    }
+
+    void recordTransformer(int index, long nanos, boolean modified) {
+        transformers[index].record(nanos, modified);
+    }
+
+    void recordTransformerException(int index, long nanos) {
+        transformers[index].recordException(nanos);
+    }
+
+    @Override
+    public long getClassesDefined() {
+        return classesDefined.sum();
+    }
+
+    @Override
+    public long getBootstrapClasses() {
+        return bootstrapClasses.sum();
+    }
+
+    @Override
+    public long getBootstrapCheckNanos() {
+        return bootstrapCheckNanos.sum();
+    }
+
+    @Override
+    public long getParentFirstClasses() {
+        return parentFirstClasses.sum();
+    }
+
+    @Override
+    public long getReadNanos() {
+        return readNanos.sum();
+    }
+
+    @Override
+    public long getTransformNanos() {
+        return transformNanos.sum();
+    }
+
+    @Override
+    public long getDefineNanos() {
+        return defineNanos.sum();
+    }
+
+    @Override
+    public long getStagedClasses() {
+        return stagedClasses.sum();
+    }
+
+    @Override
+    public long getArchivedClasses() {
+        return archivedClasses.sum();
+    }
+
+    @Override
+    public List<TransformerStats> getTransformerStats() {
+        List<TransformerStats> stats = new ArrayList<>(transformers.length);
+        for (Recorder recorder : transformers) {
+            stats.add(recorder.snapshot());
+        }
+        return stats;
+    }
+
+    private static final class Recorder {
+        private final String name;
+        private final LongAdder modified = new LongAdder();
+        private final LongAdder unchanged = new LongAdder();
+        private final LongAdder exceptions = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder[] histogram = new LongAdder[HISTOGRAM_BUCKETS];
+
+        private Recorder(String name) {
+            this.name = name;
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = new LongAdder();
+            }
+        }
+
+        private void record(long nanos, boolean wasModified) {
+            (wasModified ? modified : unchanged).increment();
+            recordLatency(nanos);
+        }
+
+        private void recordException(long nanos) {
+            exceptions.increment();
+            recordLatency(nanos);
+        }
+
+        private void recordLatency(long nanos) {
+            totalNanos.add(nanos);
+            int bucket = 64 - Long.numberOfLeadingZeros(Math.max(nanos, 0));
+            histogram[Math.min(bucket, HISTOGRAM_BUCKETS - 1)].increment();
+        }
+
+        private TransformerStats snapshot() {
+            long[] buckets = new long[histogram.length];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = histogram[i].sum();
+            }
+            long mod = modified.sum();
+            long unch = unchanged.sum();
+            long exc = exceptions.sum();
+            return new TransformerStats(name, mod + unch + exc, mod, unch, exc, totalNanos.sum(), buckets);
+        }
+    }
+
+}
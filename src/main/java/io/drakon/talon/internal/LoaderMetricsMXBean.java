@@ -0,0 +1,68 @@
+package io.drakon.talon.internal;
+
+import java.util.List;
+
+import org.apiguardian.api.API;
+
+/**
+ * JMX view of a {@link TalonClassLoader}'s metrics, registered by {@link io.drakon.talon.Talon#start()}. All times are
+ * cumulative nanoseconds across all threads.
+ */
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon"})
+public interface LoaderMetricsMXBean {
+
+    /**
+     * @return Classes defined by this loader.
+     */
+    long getClassesDefined();
+
+    /**
+     * @return Classes served from the bootstrap/platform classloader.
+     */
+    long getBootstrapClasses();
+
+    /**
+     * @return Time spent checking the bootstrap/platform classloader.
+     */
+    long getBootstrapCheckNanos();
+
+    /**
+     * @return Classes handed out from the system classloader because they're in a parent-first package.
+     */
+    long getParentFirstClasses();
+
+    /**
+     * @return Time spent reading class bytes.
+     */
+    long getReadNanos();
+
+    /**
+     * @return Time spent transforming classes, including cache lookups.
+     */
+    long getTransformNanos();
+
+    /**
+     * @return Time spent in {@link ClassLoader#defineClass(String, byte[], int, int)}.
+     */
+    long getDefineNanos();
+
+    /**
+     * @return Classes which were read and transformed ahead of demand by a background thread.
+     */
+    long getStagedClasses();
+
+    /**
+     * @return Classes which were served without transforming them, from an archive of classes transformed ahead of time
+     * or the recording of an AppCDS training run.
+     */
+    long getArchivedClasses();
+
+    /**
+     * Per-transformer statistics, in registration order. Transformers fused into a single ASM pass share the time of
+     * that pass equally between those which took part.
+     *
+     * @return A snapshot of each transformer's statistics.
+     */
+    List<TransformerStats> getTransformerStats();
+
+}
@@ -0,0 +1,83 @@
+package io.drakon.talon.internal;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.drakon.talon.TransformOutput;
+import org.apiguardian.api.API;
+
+/**
+ * Per-thread pool of direct buffers handed to {@link io.drakon.talon.BufferTransformer}s.
+ * <p>
+ * Each class load opens a {@link Session}, which holds on to every buffer it hands out until it's closed after the class
+ * is defined. Loading a class can load others on the same thread (e.g. its superclass, during <code>defineClass</code>),
+ * so sessions nest; a nested session only ever sees buffers the outer sessions aren't using.
+ */
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon.internal"})
+public final class OutputBuffers {
+
+    /** Buffers bigger than this are left for the GC rather than being pooled. */
+    static final int MAX_POOLED_CAPACITY = 1 << 20;
+    private static final int MAX_POOLED = 8;
+    private static final int MIN_CAPACITY = 4096;
+
+    private static final ThreadLocal<ArrayDeque<ByteBuffer>> FREE = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private OutputBuffers() {}
+
+    /**
+     * @return A new session for the current thread. Must be closed on the same thread.
+     */
+    static Session open() {
+        return new Session(FREE.get());
+    }
+
+    static final class Session implements TransformOutput, AutoCloseable {
+
+        private final ArrayDeque<ByteBuffer> free;
+        private List<ByteBuffer> used;
+
+        private Session(ArrayDeque<ByteBuffer> free) {
+            this.free = free;
+        }
+
+        @Override
+        public ByteBuffer allocate(int capacity) {
+            ByteBuffer buffer = null;
+            for (int i = free.size(); i > 0; i--) {
+                ByteBuffer candidate = free.pollFirst();
+                if (candidate.capacity() >= capacity) {
+                    buffer = candidate;
+                    break;
+                }
+                free.addLast(candidate);
+            }
+            if (buffer == null) {
+                buffer = ByteBuffer.allocateDirect(Math.max(capacity, MIN_CAPACITY));
+            }
+            if (used == null) {
+                used = new ArrayList<>(2);
+            }
+            used.add(buffer);
+            buffer.clear();
+            return buffer;
+        }
+
+        @Override
+        public void close() {
+            if (used == null) {
+                return;
+            }
+            for (ByteBuffer buffer : used) {
+                if (buffer.capacity() <= MAX_POOLED_CAPACITY && free.size() < MAX_POOLED) {
+                    free.addLast(buffer);
+                }
+            }
+            used = null;
+        }
+
+    }
+
+}
@@ -0,0 +1,159 @@
+package io.drakon.talon.internal;
+
+import java.util.*;
+
+import org.apiguardian.api.API;
+
+/**
+ * Immutable matcher for package include/exclude rules, compiled once and then queried for every class load.
+ * <p>
+ * Literal rules are package prefixes (e.g. <code>io.drakon.talon.</code>) and are compiled into a prefix trie, so
+ * matching is a single walk over the class name regardless of how many rules there are, and never allocates. Rules
+ * containing glob metacharacters are matched with {@link Glob#matchesPackageOf(String)} after the trie walk.
+ * <p>
+ * A name matches if it matches any include rule (or there are no include rules) and no exclude rule.
+ */
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon.internal"})
+public final class PackageMatcher {
+
+    private final Trie includes;
+    private final Glob[] includeGlobs;
+    private final Trie excludes;
+    private final Glob[] excludeGlobs;
+    private final String rules;
+
+    /**
+     * @param includes Include rules, or an empty collection to include everything.
+     * @param excludes Exclude rules.
+     */
+    public PackageMatcher(Collection<String> includes, Collection<String> excludes) {
+        this.includes = new Trie(literals(includes));
+        this.includeGlobs = globs(includes);
+        this.excludes = new Trie(literals(excludes));
+        this.excludeGlobs = globs(excludes);
+        this.rules = "+" + new TreeSet<>(includes) + " -" + new TreeSet<>(excludes);
+    }
+
+    /**
+     * @return True if there are no include rules, so everything not excluded matches.
+     */
+    public boolean includesEverything() {
+        return includes.isEmpty() && includeGlobs.length == 0;
+    }
+
+    /**
+     * @param name The full class name.
+     * @return True if the name is included and not excluded.
+     */
+    public boolean matches(String name) {
+        if (excludes.matchesPrefix(name) || anyMatch(excludeGlobs, name)) {
+            return false;
+        }
+        return includesEverything() || includes.matchesPrefix(name) || anyMatch(includeGlobs, name);
+    }
+
+    /**
+     * @return The rules, in a stable order, so that matchers with the same rules have the same string form.
+     */
+    @Override
+    public String toString() {
+        return rules;
+    }
+
+    private static boolean anyMatch(Glob[] globs, String name) {
+        for (Glob glob : globs) {
+            if (glob.matchesPackageOf(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> literals(Collection<String> rules) {
+        List<String> out = new ArrayList<>();
+        for (String rule : rules) {
+            if (!Glob.isGlob(rule)) {
+                out.add(rule);
+            }
+        }
+        return out;
+    }
+
+    private static Glob[] globs(Collection<String> rules) {
+        List<Glob> out = new ArrayList<>();
+        for (String rule : rules) {
+            if (Glob.isGlob(rule)) {
+                out.add(new Glob(rule.endsWith(".") ? rule.substring(0, rule.length() - 1) : rule));
+            }
+        }
+        return out.toArray(new Glob[0]);
+    }
+
+    /**
+     * Character trie flattened into arrays. Each node's outgoing edges are kept sorted for binary search.
+     */
+    private static final class Trie {
+
+        private final char[][] edgeChars;
+        private final int[][] edgeTargets;
+        private final boolean[] terminal;
+
+        private Trie(List<String> prefixes) {
+            List<TreeMap<Character, Integer>> edges = new ArrayList<>();
+            List<Boolean> terminals = new ArrayList<>();
+            edges.add(new TreeMap<>());
+            terminals.add(false);
+            for (String prefix : prefixes) {
+                int node = 0;
+                for (int i = 0; i < prefix.length(); i++) {
+                    Integer next = edges.get(node).get(prefix.charAt(i));
+                    if (next == null) {
+                        next = edges.size();
+                        edges.add(new TreeMap<>());
+                        terminals.add(false);
+                        edges.get(node).put(prefix.charAt(i), next);
+                    }
+                    node = next;
+                }
+                terminals.set(node, true);
+            }
+
+            this.edgeChars = new char[edges.size()][];
+            this.edgeTargets = new int[edges.size()][];
+            this.terminal = new boolean[edges.size()];
+            for (int node = 0; node < edges.size(); node++) {
+                TreeMap<Character, Integer> nodeEdges = edges.get(node);
+                edgeChars[node] = new char[nodeEdges.size()];
+                edgeTargets[node] = new int[nodeEdges.size()];
+                int i = 0;
+                for (Map.Entry<Character, Integer> edge : nodeEdges.entrySet()) {
+                    edgeChars[node][i] = edge.getKey();
+                    edgeTargets[node][i] = edge.getValue();
+                    i++;
+                }
+                terminal[node] = terminals.get(node);
+            }
+        }
+
+        private boolean isEmpty() {
+            return edgeChars[0].length == 0 && !terminal[0];
+        }
+
+        private boolean matchesPrefix(String name) {
+            int node = 0;
+            for (int i = 0; i < name.length(); i++) {
+                if (terminal[node]) {
+                    return true;
+                }
+                int edge = Arrays.binarySearch(edgeChars[node], name.charAt(i));
+                if (edge < 0) {
+                    return false;
+                }
+                node = edgeTargets[node][edge];
+            }
+            return terminal[node];
+        }
+
+    }
+
+}
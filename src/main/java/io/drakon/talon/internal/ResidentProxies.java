@@ -0,0 +1,212 @@
+package io.drakon.talon.internal;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apiguardian.api.API;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Generates typed proxies which let code outside a {@link TalonClassLoader} call into classes inside it through an
+ * interface from the outside, without reflection.
+ * <p>
+ * If the target class already implements the interface (because the interface's package is parent-first, so both sides
+ * see the same class) no proxy is needed. Otherwise a small class is generated which implements the outside interface
+ * and forwards each method straight to the matching public method on the target with a single
+ * <code>invokevirtual</code>, so arguments and return values are never boxed and the JIT can inline through it. The
+ * proxy is defined by a child of the Talon loader which resolves the interface's name to the outside interface and
+ * everything else through Talon, so every type in the interface's signatures has to be the same class on both sides
+ * (i.e. from the JDK or a parent-first package).
+ * <p>
+ * Generated proxies are cached per interface and target for the lifetime of this object, which should be no longer
+ * than the loader's.
+ */
+@Slf4j
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon"})
+public final class ResidentProxies {
+
+    private static final AtomicInteger PROXY_IDS = new AtomicInteger();
+
+    private final ClassLoader loader;
+    // Keyed by class rather than held in a ClassValue, as a ClassValue on an outside interface would keep this loader's
+    // classes reachable from it after close.
+    private final Map<Class<?>, Map<Class<?>, Constructor<?>>> factories = new ConcurrentHashMap<>();
+
+    public ResidentProxies(ClassLoader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Wraps an object from inside the loader in the given interface.
+     *
+     * @param iface  A public interface, usually from outside the loader.
+     * @param target The object to call.
+     * @param <T>    The interface type.
+     * @return The target itself if it already implements the interface, or a proxy forwarding to it.
+     * @throws IllegalArgumentException if the target has no matching public method for an interface method, or the
+     *                                  interface's signatures use types which aren't shared with the loader.
+     */
+    public <T> T wrap(Class<T> iface, Object target) {
+        if (iface.isInstance(target)) {
+            return iface.cast(target);
+        }
+        Constructor<?> factory = factories.computeIfAbsent(iface, it -> new ConcurrentHashMap<>())
+                .computeIfAbsent(target.getClass(), it -> generate(iface, it));
+        try {
+            return iface.cast(factory.newInstance(target));
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException ex) {
+            throw new IllegalStateException("unable to construct resident proxy for " + target.getClass().getName(), ex);
+        }
+    }
+
+    /**
+     * Checks that a type is the same class inside the loader as outside it, so that it can be passed across.
+     *
+     * @param type The type.
+     * @throws IllegalArgumentException if the loader has its own copy of the type, or can't see it at all.
+     */
+    public void checkShared(Class<?> type) {
+        if (type.isPrimitive()) {
+            return;
+        }
+        Class<?> inside;
+        try {
+            inside = Class.forName(type.getName(), false, loader);
+        } catch (ClassNotFoundException ex) {
+            throw new IllegalArgumentException(type.getName() + " is not visible to Talon", ex);
+        }
+        if (inside != type) {
+            throw new IllegalArgumentException(type.getName() + " is defined separately by Talon; add its package with "
+                    + "Talon#addParentFirstPackage to share it");
+        }
+    }
+
+    private Constructor<?> generate(Class<?> iface, Class<?> target) {
+        if (!iface.isInterface() || !Modifier.isPublic(iface.getModifiers())) {
+            throw new IllegalArgumentException(iface.getName() + " is not a public interface");
+        }
+        if (!Modifier.isPublic(target.getModifiers())) {
+            throw new IllegalArgumentException(target.getName() + " is not public");
+        }
+
+        String name = target.getName() + "$$TalonResident$" + PROXY_IDS.incrementAndGet();
+        String internalName = name.replace('.', '/');
+        String targetName = Type.getInternalName(target);
+        String targetDesc = Type.getDescriptor(target);
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_SYNTHETIC,
+                internalName, null, "java/lang/Object", new String[]{Type.getInternalName(iface)});
+        cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "target", targetDesc, null, null).visitEnd();
+
+        // Takes Object so that the factory can be called without naming the target class.
+        MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "(Ljava/lang/Object;)V", null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitVarInsn(Opcodes.ALOAD, 1);
+        init.visitTypeInsn(Opcodes.CHECKCAST, targetName);
+        init.visitFieldInsn(Opcodes.PUTFIELD, internalName, "target", targetDesc);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        for (Method method : iface.getMethods()) {
+            if (Modifier.isStatic(method.getModifiers())) {
+                continue;
+            }
+            Method targetMethod = findTarget(target, method);
+            if (targetMethod == null) {
+                if (method.isDefault()) {
+                    continue; // The interface's own default applies.
+                }
+                throw new IllegalArgumentException(target.getName() + " has no public method matching " + method);
+            }
+
+            Type type = Type.getType(method);
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, method.getName(),
+                    type.getDescriptor(), null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, internalName, "target", targetDesc);
+            int slot = 1;
+            for (Type arg : type.getArgumentTypes()) {
+                mv.visitVarInsn(arg.getOpcode(Opcodes.ILOAD), slot);
+                slot += arg.getSize();
+            }
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, targetName, targetMethod.getName(),
+                    Type.getMethodDescriptor(targetMethod), false);
+            mv.visitInsn(type.getReturnType().getOpcode(Opcodes.IRETURN));
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+
+        Class<?> proxy = new ProxyLoader(loader, iface).define(name, cw.toByteArray());
+        log.debug("Generated resident proxy {} for {} as {}", proxy.getName(), target.getName(), iface.getName());
+        try {
+            return proxy.getConstructor(Object.class);
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private Method findTarget(Class<?> target, Method method) {
+        for (Class<?> param : method.getParameterTypes()) {
+            checkShared(param);
+        }
+        checkShared(method.getReturnType());
+        Method targetMethod;
+        try {
+            targetMethod = target.getMethod(method.getName(), method.getParameterTypes());
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+        if (Modifier.isStatic(targetMethod.getModifiers())) {
+            return null;
+        }
+        Class<?> returns = targetMethod.getReturnType();
+        if (returns != method.getReturnType() && (returns.isPrimitive() || method.getReturnType().isPrimitive()
+                || !method.getReturnType().isAssignableFrom(returns))) {
+            throw new IllegalArgumentException(targetMethod + " does not return " + method.getReturnType().getName());
+        }
+        return targetMethod;
+    }
+
+    /**
+     * Defines proxies so that they see the outside interface, and everything else as the Talon loader does.
+     */
+    private static final class ProxyLoader extends ClassLoader {
+
+        private final Class<?> iface;
+
+        private ProxyLoader(ClassLoader parent, Class<?> iface) {
+            super(parent);
+            this.iface = iface;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.equals(iface.getName())) {
+                return iface;
+            }
+            return super.loadClass(name, resolve);
+        }
+
+        private Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+
+    }
+
+}
@@ -2,15 +2,25 @@ package io.drakon.talon.internal;
 
 import java.io.*;
 import java.net.URL;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import io.drakon.talon.ClassIndex;
+import io.drakon.talon.PreloadReport;
+import io.drakon.talon.TransformOutput;
 import io.drakon.talon.Transformer;
+import io.drakon.talon.cache.TransformCache;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
 import org.apiguardian.api.API;
@@ -23,7 +33,7 @@ import org.apiguardian.api.API;
  */
 @Slf4j
 @API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon.Talon"})
-public class TalonClassLoader extends ClassLoader {
+public class TalonClassLoader extends ClassLoader implements AutoCloseable {
 
     // Packages that would generally be bad to transform. Can be overridden by explicit whitelist entries.
     private static final String[] BLACKLISTED_PACKAGE_PREFIXES = new String[]{
@@ -37,23 +47,52 @@ public class TalonClassLoader extends ClassLoader {
     };
     private static final String SAVE_CLASSES = System.getProperty("talon.saveClassesTo");
 
-    private final Set<String> whitelist;
-    private final List<Transformer> transformers;
-    private Map<String, Class<?>> classCache = new ConcurrentHashMap<>();
+    static {
+        // Lets the JDK hand out a lock per class name from getClassLoadingLock, instead of locking the whole loader.
+        registerAsParallelCapable();
+    }
+
+    private final PackageMatcher transformMatcher;
+    private final PackageMatcher parentFirstMatcher;
+    private final TransformerChain transformers;
+    private final TransformCacheChain transformCache;
+    private final String fingerprint;
+    private final LoaderMetrics metrics;
+    private final Map<String, Class<?>> classCache = new ConcurrentHashMap<>();
     private final ClassLoader parent = ClassLoader.getSystemClassLoader();
     private final ClassLoader bootstrap = parent.getParent();
+    private final ClasspathIndex classpath = ClasspathIndex.system();
+    private final ClassStaging staging = new ClassStaging(Integer.getInteger("talon.prefetchLimit", 4096));
+    private volatile ClassLoadProfile profile = null;
+    private volatile ThreadPoolExecutor prefetcher = null;
+    private volatile ClassArchive archive = null;
+    private volatile AppCds cds = null;
+    private volatile AppCds.Training cdsTraining = null;
+    private volatile boolean closed = false;
 
     /**
      * Constructs a new {@link TalonClassLoader}.
      *
-     * @param whitelist    Whitelist of package prefixes to include in the transformation process. Can be null, in which
-     *                     case all packages except those on the standard blacklist will be transformer candidates.
+     * @param whitelist    Whitelist of package prefixes or globs to include in the transformation process. Can be null,
+     *                     in which case all packages except those on the standard blacklist will be transformer
+     *                     candidates.
+     * @param excludes     Package prefixes or globs to never transform, even if whitelisted.
+     * @param parentFirst  Package prefixes or globs to load from the system classloader instead of defining here.
      * @param transformers The transformers to apply to acceptable classes.
+     * @param caches       Caches of transformed classes to consult before running the transformers, in order.
      */
-    public TalonClassLoader(Set<String> whitelist, List<Transformer> transformers, List<Function<ClassLoader, Transformer>> pendingTransformers) {
+    public TalonClassLoader(Set<String> whitelist, Set<String> excludes, Set<String> parentFirst, List<Transformer> transformers,
+                            List<Function<ClassLoader, Transformer>> pendingTransformers, List<TransformCache> caches) {
         super(ClassLoader.getSystemClassLoader());
-        this.whitelist = whitelist;
-        this.transformers = transformers;
+        // An empty include list would match everything, so no parent-first packages needs special casing.
+        this.parentFirstMatcher = parentFirst.isEmpty() ? null : new PackageMatcher(parentFirst, Collections.emptyList());
+        if (whitelist == null) {
+            List<String> blacklist = new ArrayList<>(Arrays.asList(BLACKLISTED_PACKAGE_PREFIXES));
+            blacklist.addAll(excludes);
+            this.transformMatcher = new PackageMatcher(Collections.emptyList(), blacklist);
+        } else {
+            this.transformMatcher = new PackageMatcher(whitelist, excludes);
+        }
         if (SAVE_CLASSES != null) {
             File saveClassDir = new File(SAVE_CLASSES);
             if (!saveClassDir.isDirectory() || !saveClassDir.canWrite()) {
@@ -62,14 +101,349 @@ public class TalonClassLoader extends ClassLoader {
             }
         }
         transformers.addAll(pendingTransformers.stream().map(it -> it.apply(this)).collect(Collectors.toList()));
+        // Private copies, so that nothing the caller later does to its lists can change them under a loading thread.
+        List<Transformer> chain = Collections.unmodifiableList(new ArrayList<>(transformers));
+        this.metrics = new LoaderMetrics(chain);
+        this.transformers = new TransformerChain(chain, metrics);
+        this.transformCache = new TransformCacheChain(Collections.unmodifiableList(new ArrayList<>(caches)), chain);
+        byte[] print = TransformCacheChain.fingerprint(chain);
+        this.fingerprint = print == null ? null : TransformCacheChain.hex(print);
+        classpath.retain();
+    }
+
+    /**
+     * Starts recording the order in which this loader defines classes.
+     *
+     * @return The profile being recorded into.
+     */
+    public ClassLoadProfile startRecording() {
+        ClassLoadProfile recording = new ClassLoadProfile();
+        profile = recording;
+        return recording;
+    }
+
+    /**
+     * Reads and transforms classes ahead of demand on a pool of background threads, so that loading threads find them
+     * ready to define. Classes are prepared roughly in the given order, which should be the order they were previously
+     * loaded in (see {@link #startRecording()}). Classes which can't be found are skipped, and are reported as usual if
+     * they're ever actually loaded.
+     * <p>
+     * The number of threads defaults to the number of processors, and can be set with
+     * <code>-Dtalon.replayThreads</code>.
+     *
+     * @param names The class names to prepare.
+     */
+    public void replay(List<String> names) {
+        int threads = Math.max(1, Integer.getInteger("talon.replayThreads", Runtime.getRuntime().availableProcessors()));
+        AtomicInteger cursor = new AtomicInteger();
+        log.debug("Replaying {} classes on {} threads", names.size(), threads);
+        for (int t = 0; t < threads; t++) {
+            Threads.daemon(() -> {
+                int i;
+                while (!closed && (i = cursor.getAndIncrement()) < names.size()) {
+                    prefetch(names.get(i), false);
+                }
+            }, "talon-replay-" + t).start();
+        }
+    }
+
+    /**
+     * Enables speculative prefetching. Whenever a transformable class is defined, the classes it references which are
+     * also transformable are read and transformed on a small pool of background threads, and staged for
+     * {@link #findClass(String)}. Nothing is defined until it's actually requested.
+     * <p>
+     * Prefetching is best-effort: if the pool's queue is full, further references are skipped and loaded on demand as
+     * usual, and if too many prefetched classes are waiting to be used, the oldest are dropped. The pool size, queue size
+     * and the number of classes that can be waiting can be set with <code>-Dtalon.prefetchThreads</code>,
+     * <code>-Dtalon.prefetchQueue</code> and <code>-Dtalon.prefetchLimit</code>.
+     */
+    public void startPrefetching() {
+        int threads = Math.max(1, Integer.getInteger("talon.prefetchThreads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+        int queue = Math.max(1, Integer.getInteger("talon.prefetchQueue", 256));
+        AtomicInteger ids = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queue),
+                runnable -> Threads.daemon(runnable, "talon-prefetch-" + ids.getAndIncrement()), new ThreadPoolExecutor.DiscardPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        prefetcher = pool;
+    }
+
+    /**
+     * Serves classes from an archive of classes transformed ahead of time. Classes in the archive skip the transformers
+     * (and any transform caches) entirely, and are defined straight from the mapped archive. Anything not in the archive
+     * is transformed as usual. Must be called before any classes are loaded.
+     * <p>
+     * The archive is only used if it was compiled with the same classpath, whitelist and transformers, and every
+     * transformer has a fingerprint.
+     *
+     * @param archive The archive, as written by {@link #compileArchive(File, int)}.
+     * @return True if the archive is being used.
+     */
+    public boolean useArchive(ClassArchive archive) {
+        if (fingerprint == null) {
+            log.info("Not every transformer has a fingerprint, so the class archive can't be validated; classes will be transformed at runtime.");
+            return false;
+        }
+        if (!archive.getStamp().equals(stamp())) {
+            log.info("Class archive is stale; classes will be transformed at runtime.");
+            return false;
+        }
+        this.archive = archive;
+        return true;
+    }
+
+    /**
+     * Starts recording every class this loader defines, for application class data sharing (AppCDS).
+     *
+     * @param dir The directory to write the recording to.
+     * @return The recording, which must be written out with {@link AppCds.Training#write()}.
+     */
+    public AppCds.Training startCdsTraining(File dir) {
+        AppCds.Training training = new AppCds.Training(dir, stamp());
+        cdsTraining = training;
+        return training;
+    }
+
+    /**
+     * Defines classes recorded by {@link #startCdsTraining(File)} straight from the recording, without transforming
+     * them, and with a code source pointing at the recorded jar so the JVM can use an AppCDS archive of them. Only
+     * takes effect if the recording was made with the same classpath, whitelist and transformers, and every
+     * transformer has a fingerprint. Must be called before any classes are loaded.
+     *
+     * @param dir The directory the recording was written to.
+     * @return True if the recording is being used.
+     */
+    public boolean useCdsClasses(File dir) {
+        if (fingerprint == null) {
+            log.info("Not every transformer has a fingerprint, so recorded AppCDS classes can't be validated; classes will be transformed at runtime.");
+            return false;
+        }
+        cds = AppCds.open(dir, stamp());
+        return cds != null;
+    }
+
+    // Identifies everything that went into transforming a class, for output which is reused across runs.
+    private String stamp() {
+        return ClassIndexBuilder.stamp(classpath.getRoots(), rules() + "\n" + fingerprint);
+    }
+
+    /**
+     * Transforms every class on the classpath which this loader would consider for transformation, in parallel, and
+     * writes the results to an archive for {@link #useArchive(ClassArchive)}. Nothing is defined, and transform caches
+     * aren't used. Classes which fail to transform are left out of the archive, and so are transformed at runtime
+     * instead.
+     *
+     * @param file        The archive file to write.
+     * @param parallelism The number of threads to transform with.
+     * @return The number of classes written to the archive.
+     * @throws IOException if the archive could not be written.
+     */
+    public int compileArchive(File file, int parallelism) throws IOException {
+        List<String> names = transformableClassNames();
+        if (names.isEmpty()) {
+            log.warn("Nothing to archive; either nothing matches the whitelist or the classpath couldn't be indexed.");
+        }
+        if (fingerprint == null) {
+            log.warn("Not every transformer has a fingerprint, so the archive will be ignored at runtime.");
+        }
+
+        Map<String, byte[]> classes = new ConcurrentHashMap<>();
+        LongAdder failures = new LongAdder();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> names.parallelStream().forEach(name -> {
+                int lastDot = name.lastIndexOf('.');
+                String pkgName = lastDot == -1 ? "" : name.substring(0, lastDot);
+                String className = lastDot == -1 ? name : name.substring(lastDot + 1);
+                try {
+                    ClassBytes bytes = getBuffer(name.replace('.', '/').concat(".class"));
+                    if (bytes == null) {
+                        return;
+                    }
+                    ClassBytes transformed = transformers.transform(name, className, pkgName, bytes, ByteBuffer::allocate);
+                    classes.put(name, transformed == null ? TransformCacheChain.UNCHANGED : transformed.array());
+                } catch (IOException | RuntimeException ex) {
+                    log.warn("Unable to transform {} ahead of time; it will be transformed at runtime instead.", name, ex);
+                    failures.increment();
+                }
+            })).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while compiling archive", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("compiling archive failed", ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        ClassArchive.write(file, stamp(), classes);
+        log.info("Archived {} classes to {} ({} failed).", classes.size(), file, failures.sum());
+        return classes.size();
+    }
+
+    /**
+     * Eagerly loads every class on the classpath which this loader would consider for transformation.
+     * <p>
+     * All the classes are first read and transformed in parallel and staged, then loaded in parallel. Loading a class
+     * loads its superclass and interfaces first, so classes are always defined in dependency order regardless of which
+     * thread gets to them. Classes are not initialised. Classes which fail to load (e.g. because an optional
+     * dependency is missing) are counted as failures and otherwise ignored, as they'd fail on demand too.
+     *
+     * @param parallelism The number of threads to use.
+     * @return A report of the time taken.
+     */
+    public PreloadReport preload(int parallelism) {
+        long start = System.nanoTime();
+        List<String> names = transformableClassNames();
+        if (names.isEmpty()) {
+            log.warn("Nothing to preload; either nothing matches the whitelist or the classpath couldn't be indexed.");
+        }
+
+        Map<String, PackageCounters> packages = new ConcurrentHashMap<>();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        long prepareNanos;
+        long defineNanos;
+        try {
+            pool.submit(() -> names.parallelStream().forEach(name -> {
+                if (closed) {
+                    return;
+                }
+                long begin = System.nanoTime();
+                prefetch(name, false);
+                counters(packages, name).prepareNanos.add(System.nanoTime() - begin);
+            })).get();
+            prepareNanos = System.nanoTime() - start;
+
+            long defineStart = System.nanoTime();
+            pool.submit(() -> names.parallelStream().forEach(name -> {
+                if (closed) {
+                    return;
+                }
+                PackageCounters counters = counters(packages, name);
+                long begin = System.nanoTime();
+                try {
+                    loadClass(name);
+                } catch (ClassNotFoundException | LinkageError ex) {
+                    log.debug("Unable to preload class {}", name, ex);
+                    counters.failures.increment();
+                }
+                counters.defineNanos.add(System.nanoTime() - begin);
+                counters.classes.increment();
+            })).get();
+            defineNanos = System.nanoTime() - defineStart;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while preloading", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("preloading failed", ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        Map<String, PreloadReport.PackageStats> stats = new TreeMap<>();
+        int failures = 0;
+        for (Map.Entry<String, PackageCounters> entry : packages.entrySet()) {
+            PackageCounters counters = entry.getValue();
+            failures += counters.failures.intValue();
+            stats.put(entry.getKey(), new PreloadReport.PackageStats(counters.classes.intValue(), counters.failures.intValue(),
+                    counters.prepareNanos.sum(), counters.defineNanos.sum()));
+        }
+        return new PreloadReport(names.size(), failures, System.nanoTime() - start, prepareNanos, defineNanos,
+                Collections.unmodifiableMap(stats));
+    }
+
+    /**
+     * Builds an index of the hierarchy and annotations of every class on the classpath which this loader would
+     * consider for transformation, reusing a persisted index if it's still valid.
+     *
+     * @param file        The file to persist the index in, or null to not persist it.
+     * @param parallelism The number of threads to build with.
+     * @return The index.
+     */
+    public ClassIndex buildClassIndex(File file, int parallelism) {
+        String stamp = ClassIndexBuilder.stamp(classpath.getRoots(), rules());
+        return ClassIndexBuilder.loadOrBuild(file, stamp, transformableClassNames(), fileName -> {
+            try {
+                return getBytes(fileName);
+            } catch (IOException ex) {
+                log.debug("Unable to read {} for the class index", fileName, ex);
+                return null;
+            }
+        }, parallelism);
+    }
+
+    /**
+     * @return The names of every class on the classpath which this loader would consider for transformation, sorted.
+     */
+    private List<String> transformableClassNames() {
+        BootstrapIndex bootstrapIndex = BootstrapIndex.get();
+        List<String> names = new ArrayList<>();
+        for (String entry : classpath.entryNames()) {
+            if (entry.startsWith("META-INF/") || entry.endsWith("module-info.class") || entry.endsWith("package-info.class")) {
+                continue;
+            }
+            String name = entry.substring(0, entry.length() - ".class".length()).replace('/', '.');
+            if (shouldTransform(name) && !bootstrapIndex.mayContain(name)) {
+                names.add(name);
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private static PackageCounters counters(Map<String, PackageCounters> packages, String name) {
+        int lastDot = name.lastIndexOf('.');
+        return packages.computeIfAbsent(lastDot == -1 ? "" : name.substring(0, lastDot), it -> new PackageCounters());
+    }
+
+    /**
+     * Closes this loader, releasing everything it holds so that it and its classes can be unloaded once nothing else
+     * refers to them. Background prefetching, replay and preloading stop, and staged and cached classes are dropped.
+     * Classes already defined keep working, but no new classes can be loaded, as with
+     * {@link java.net.URLClassLoader#close()}. Closing again has no effect.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        ThreadPoolExecutor pool = prefetcher;
+        prefetcher = null;
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        staging.clear();
+        classCache.clear();
+        profile = null;
+        archive = null;
+        cdsTraining = null;
+        AppCds shared = cds;
+        cds = null;
+        if (shared != null) {
+            shared.close();
+        }
+        classpath.release();
+    }
+
+    /**
+     * @return The metrics recorded by this loader.
+     */
+    public LoaderMetrics getMetrics() {
+        return metrics;
     }
 
     // This is mostly a direct copy of the JDK implementation, switched around for our use. This version queries *this*
-    // classloader before the parent, inverting the normal delegation pattern.
+    // classloader before the parent, inverting the normal delegation pattern. As the loader is parallel capable, the
+    // lock is per class name, so unrelated classes can be loaded concurrently.
     @Override
     protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        // Lock-free fast path for anything we've already handed out.
+        Class<?> c = classCache.get(name);
+        if (c != null) {
+            return c;
+        }
         synchronized (getClassLoadingLock(name)) {
-            Class<?> c = findLoadedClass(name);
+            c = findLoadedClass(name);
             if (c == null) {
                 c = findClass(name);
             }
@@ -79,20 +453,39 @@ public class TalonClassLoader extends ClassLoader {
 
     @Override
     protected Class<?> findClass(String name) throws ClassNotFoundException {
-        if (classCache.containsKey(name)) {
-            return classCache.get(name);
+        Class<?> cached = classCache.get(name);
+        if (cached != null) {
+            return cached;
         }
 
         // Always check the bootstrap classloader first. If it exists here, it's JDK-internal and we shouldn't fiddle
-        // with it!
-        try {
-            Class<?> bootstrapResponse = bootstrap.loadClass(name);
-            if (bootstrapResponse != null) {
-                classCache.put(name, bootstrapResponse);
-                return bootstrapResponse;
+        // with it! The index lets us skip this (and the exception it throws) for classes that can't be in the JDK.
+        long start = System.nanoTime();
+        BootstrapIndex bootstrapIndex = BootstrapIndex.get();
+        if (bootstrapIndex.mayContain(name)) {
+            try {
+                Class<?> bootstrapResponse = bootstrap.loadClass(name);
+                if (bootstrapResponse != null) {
+                    metrics.recordBootstrapCheck(System.nanoTime() - start, true);
+                    classCache.put(name, bootstrapResponse);
+                    return bootstrapResponse;
+                }
+            } catch (ClassNotFoundException ex) {
+                bootstrapIndex.recordMiss(name);
             }
-        } catch (ClassNotFoundException ex) {
-            // Pass
+        }
+        metrics.recordBootstrapCheck(System.nanoTime() - start, false);
+
+        if (isParentFirst(name)) {
+            // Shared with the system classloader (and so every other Talon instance) rather than defined again here.
+            Class<?> shared = parent.loadClass(name);
+            metrics.recordParentFirst();
+            classCache.put(name, shared);
+            return shared;
+        }
+        if (closed) {
+            // JDK and parent-first classes are still handed out above, so classes already defined here keep working.
+            throw new ClassNotFoundException(name, new IllegalStateException("Talon classloader has been closed"));
         }
 
         int lastDot = name.lastIndexOf('.');
@@ -100,51 +493,214 @@ public class TalonClassLoader extends ClassLoader {
         String className = lastDot == -1 ? name : name.substring(lastDot + 1);
         String fileName = name.replace('.', '/').concat(".class");
 
+        // Reserved until the class is in the cache, so a prefetch can't slip in between and prepare it again.
+        byte[] staged = staging.claim(name);
         try {
             Package pkg = getPackage(pkgName);
             if (pkg == null) {
-                // TODO(emberwalker): We could define this better, e.g. by using Jar metadata.
-                pkg = definePackage(pkgName, null, null, null, null, null, null, null);
+                try {
+                    // TODO(emberwalker): We could define this better, e.g. by using Jar metadata.
+                    pkg = definePackage(pkgName, null, null, null, null, null, null, null);
+                } catch (IllegalArgumentException ex) {
+                    // Another thread defined it first while loading a different class in the same package.
+                    pkg = getPackage(pkgName);
+                }
             }
 
-            byte[] bytes = getBytes(fileName);
-            if (bytes == null) {
-                throw new ClassNotFoundException("unable to load class bytes: " + fileName);
-            }
+            start = System.nanoTime();
+            // Any pooled buffers the transformers wrote into are only safe to reuse once the class has been defined.
+            try (OutputBuffers.Session output = OutputBuffers.open()) {
+                ClassBytes bytes;
+                if (staged != null) {
+                    metrics.recordStaged();
+                    bytes = ClassBytes.of(staged);
+                } else {
+                    bytes = prepare(name, className, pkgName, fileName, output);
+                    if (bytes == null) {
+                        throw new ClassNotFoundException("unable to load class bytes: " + fileName);
+                    }
+                }
+                long prepareNanos = System.nanoTime() - start;
 
-            if (shouldTransform(name)) {
-                boolean hasTransformed = false;
-                log.trace("Starting transforms of class: {}", name);
-                for (Transformer transformer : transformers) {
-                    log.trace("Running transformer {} on {}", transformer, name);
-                    byte[] newBytes = transformer.transform(className, pkgName, bytes);
-                    if (newBytes != null) {
-                        bytes = newBytes;
-                        hasTransformed = true;
-                        log.trace("Transformer {} applied on {}", transformer, name);
+                Class<?> clazz;
+                try {
+                    start = System.nanoTime();
+                    AppCds shared = cds;
+                    ProtectionDomain domain = shared != null && shared.contains(fileName) ? shared.getProtectionDomain() : null;
+                    if (bytes.isBufferOnly()) {
+                        clazz = defineClass(name, bytes.buffer(), domain);
                     } else {
-                        log.trace("Transformer {} made no changes to {}", transformer, name);
+                        byte[] array = bytes.array();
+                        clazz = defineClass(name, array, 0, array.length, domain);
+                    }
+                    metrics.recordDefine(System.nanoTime() - start);
+                    AppCds.Training training = cdsTraining;
+                    if (training != null) {
+                        // Before anything else can see the class, so its subclasses are always recorded after it.
+                        training.record(clazz, bytes.array());
+                    }
+                } catch (LinkageError err) {
+                    // Only reachable if findClass is called outside of loadClass's per-name lock and another thread won
+                    // the race to define this class. Hand out the winner rather than failing.
+                    clazz = findLoadedClass(name);
+                    if (clazz == null) {
+                        throw err;
                     }
                 }
-                if (!hasTransformed) {
-                    log.trace("No transformations applied to {}", name);
-                } else {
-                    saveToDisk(bytes, fileName);
+                Class<?> existing = classCache.putIfAbsent(name, clazz);
+                if (existing != null) {
+                    return existing;
+                }
+                ClassLoadProfile recording = profile;
+                if (recording != null) {
+                    recording.record(name, prepareNanos);
+                }
+                ThreadPoolExecutor pool = prefetcher;
+                if (pool != null && shouldTransform(name)) {
+                    prefetchReferences(pool, bytes.array());
                 }
+                return clazz;
             }
-
-            Class<?> clazz = defineClass(name, bytes, 0, bytes.length);
-            classCache.put(name, clazz);
-            return clazz;
         } catch (ClassNotFoundException ex) {
             throw new ClassNotFoundException(name, ex);
         } catch (Throwable t) {
             log.trace("Unable to load class {}", name, t);
             throw new ClassNotFoundException(name, t);
+        } finally {
+            staging.release(name);
+        }
+    }
+
+    /**
+     * Reads and, if applicable, transforms a class, ready to be defined.
+     *
+     * @param output Where {@link io.drakon.talon.BufferTransformer}s get their output buffers.
+     * @return The class bytes, or null if the class couldn't be found.
+     */
+    private ClassBytes prepare(String name, String className, String pkgName, String fileName, TransformOutput output) throws IOException {
+        long start = System.nanoTime();
+        AppCds shared = cds;
+        byte[] recorded = shared != null ? shared.read(fileName) : null;
+        if (recorded != null) {
+            // The exact bytes a training run defined, so the JVM can match them to its archive.
+            metrics.recordRead(System.nanoTime() - start);
+            metrics.recordArchived();
+            return ClassBytes.of(recorded);
+        }
+        ClassArchive aot = archive;
+        ByteBuffer archived = aot != null && shouldTransform(name) ? aot.get(name) : null;
+        if (archived != null) {
+            // Already transformed ahead of time, so neither the transformers nor the caches need to be consulted.
+            ClassBytes bytes = archived == ClassArchive.UNCHANGED ? getBuffer(fileName) : ClassBytes.of(archived);
+            metrics.recordRead(System.nanoTime() - start);
+            metrics.recordArchived();
+            return bytes;
         }
+
+        ClassBytes bytes = getBuffer(fileName);
+        metrics.recordRead(System.nanoTime() - start);
+        if (bytes == null) {
+            return null;
+        }
+        if (shouldTransform(name)) {
+            start = System.nanoTime();
+            bytes = transform(name, className, pkgName, fileName, bytes, output);
+            metrics.recordTransform(System.nanoTime() - start);
+        }
+        return bytes;
+    }
+
+    /**
+     * Prepares a class on the calling thread and stages it for {@link #findClass(String)}, unless it's already been
+     * loaded, staged, or belongs to the JDK.
+     *
+     * @param speculative True if the class is only a guess at what will be needed, so can be evicted if it isn't.
+     */
+    private void prefetch(String name, boolean speculative) {
+        if (closed || classCache.containsKey(name) || staging.contains(name) || BootstrapIndex.get().mayContain(name)) {
+            return;
+        }
+        int lastDot = name.lastIndexOf('.');
+        String pkgName = lastDot == -1 ? "" : name.substring(0, lastDot);
+        String className = lastDot == -1 ? name : name.substring(lastDot + 1);
+        String fileName = name.replace('.', '/').concat(".class");
+        staging.stage(name, () -> {
+            if (classCache.containsKey(name)) {
+                return null; // Defined since the check above, before staging reserved the name.
+            }
+            try {
+                // Staged bytes outlive this thread's buffer pool, so they're kept as arrays.
+                ClassBytes bytes = prepare(name, className, pkgName, fileName, ByteBuffer::allocate);
+                return bytes == null ? null : bytes.array();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }, speculative);
+    }
+
+    private void prefetchReferences(ThreadPoolExecutor pool, byte[] bytes) {
+        pool.execute(() -> {
+            for (String reference : ConstantPoolScanner.classReferences(bytes)) {
+                if (shouldTransform(reference)) {
+                    prefetch(reference, true);
+                }
+            }
+        });
+    }
+
+    private ClassBytes transform(String name, String className, String pkgName, String fileName, ClassBytes bytes,
+                                 TransformOutput output) {
+        String cacheKey = transformCache.key(name, bytes.buffer());
+        if (cacheKey != null) {
+            byte[] cached = transformCache.get(cacheKey);
+            if (cached != null) {
+                log.trace("Transform cache hit for {}", name);
+                return cached == TransformCacheChain.UNCHANGED ? bytes : ClassBytes.of(cached);
+            }
+        }
+
+        log.trace("Starting transforms of class: {}", name);
+        ClassBytes newBytes = transformers.transform(name, className, pkgName, bytes, output);
+        boolean hasTransformed = newBytes != null;
+        if (!hasTransformed) {
+            log.trace("No transformations applied to {}", name);
+        } else {
+            bytes = newBytes;
+            saveToDisk(bytes, fileName);
+        }
+
+        if (cacheKey != null) {
+            transformCache.put(cacheKey, hasTransformed ? bytes.array() : TransformCacheChain.UNCHANGED);
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads a class as a buffer, straight from the mapped jar where possible.
+     */
+    private ClassBytes getBuffer(String fileName) throws IOException {
+        try {
+            ByteBuffer indexed = classpath.readBuffer(fileName);
+            if (indexed != null) {
+                return ClassBytes.of(indexed);
+            }
+        } catch (IOException ex) {
+            log.debug("Unable to read {} from the classpath index; falling back to the system classloader.", fileName, ex);
+        }
+        byte[] bytes = getBytes(fileName);
+        return bytes == null ? null : ClassBytes.of(bytes);
     }
 
     private byte[] getBytes(String fileName) throws IOException {
+        try {
+            byte[] indexed = classpath.read(fileName);
+            if (indexed != null) {
+                return indexed;
+            }
+        } catch (IOException ex) {
+            log.debug("Unable to read {} from the classpath index; falling back to the system classloader.", fileName, ex);
+        }
+
         InputStream inputStream = null;
         try {
             URL resource = parent.getResource(fileName);
@@ -164,36 +720,35 @@ public class TalonClassLoader extends ClassLoader {
         }
     }
 
-    private void saveToDisk(byte[] bytes, String fileName) {
-        if (SAVE_CLASSES == null) {
-            return;
+    private void saveToDisk(ClassBytes bytes, String fileName) {
+        ClassDumper dumper = ClassDumper.system();
+        if (dumper != null) {
+            // Handed off to the background writer, so a slow disk doesn't hold up loading.
+            dumper.submit(fileName, bytes.array());
         }
+    }
 
-        File out = new File(SAVE_CLASSES + "/" + fileName);
-        if (!out.getParentFile().exists() && !out.getParentFile().mkdirs()) {
-            log.error("Failed to create dirs for path: {}", out.getPath());
-            return;
-        }
-        if (out.exists() && !out.delete()) {
-            log.error("Failed to delete old file for path: {}", out.getPath());
-            return;
-        }
+    private boolean shouldTransform(String name) {
+        // Parent-first classes are never defined here, so there's no point preparing them.
+        return transformMatcher.matches(name) && !isParentFirst(name);
+    }
 
-        try {
-            log.debug("Saving transformed class: {}", fileName);
-            OutputStream outStream = new FileOutputStream(out);
-            outStream.write(bytes);
-            outStream.close();
-        } catch (IOException ex) {
-            log.error("Unable to save class file '{}': {}", out.getPath(), ex);
-        }
+    private boolean isParentFirst(String name) {
+        return parentFirstMatcher != null && parentFirstMatcher.matches(name);
     }
 
-    private boolean shouldTransform(String name) {
-        if (whitelist == null) {
-            return Arrays.stream(BLACKLISTED_PACKAGE_PREFIXES).noneMatch(name::startsWith);
-        }
-        return whitelist.stream().anyMatch(name::startsWith);
+    /**
+     * @return The package rules deciding which classes this loader transforms, in a stable form for stamps.
+     */
+    private String rules() {
+        return parentFirstMatcher == null ? transformMatcher.toString() : transformMatcher + " ^" + parentFirstMatcher;
+    }
+
+    private static final class PackageCounters {
+        private final LongAdder classes = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder prepareNanos = new LongAdder();
+        private final LongAdder defineNanos = new LongAdder();
     }
 
 }
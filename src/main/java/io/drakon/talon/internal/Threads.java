@@ -0,0 +1,35 @@
+package io.drakon.talon.internal;
+
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+
+import org.apiguardian.api.API;
+
+/**
+ * Creates Talon's background threads.
+ * <p>
+ * A new thread normally inherits the context classloader and access control context of the thread which created it.
+ * Talon often creates threads lazily from whichever thread happens to be loading a class, which may be running code
+ * from a {@link TalonClassLoader}; a long-lived thread inheriting that would keep the loader reachable after its Talon
+ * instance has been closed. Threads from here inherit neither.
+ */
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon", "io.drakon.talon.cache", "io.drakon.talon.internal"})
+public final class Threads {
+
+    private Threads() {}
+
+    /**
+     * @param runnable What the thread should run.
+     * @param name     The thread name.
+     * @return A new, unstarted daemon thread.
+     */
+    public static Thread daemon(Runnable runnable, String name) {
+        // Only this frame is on the privileged stack, so the thread doesn't capture the protection domains (and so the
+        // loaders) of whatever is calling.
+        Thread thread = AccessController.doPrivileged((PrivilegedAction<Thread>) () -> new Thread(runnable, name));
+        thread.setContextClassLoader(Threads.class.getClassLoader());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+}
@@ -0,0 +1,136 @@
+package io.drakon.talon.internal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import io.drakon.talon.Transformer;
+import io.drakon.talon.cache.TransformCache;
+import lombok.extern.slf4j.Slf4j;
+import org.apiguardian.api.API;
+
+/**
+ * Consults an ordered list of {@link TransformCache} tiers on behalf of the {@link TalonClassLoader}.
+ * <p>
+ * Keys are a SHA-256 over the combined transformer fingerprint, the class name and the original class bytes. If any
+ * transformer is unable to provide a fingerprint, caching is disabled entirely, as there would be no way to tell if a
+ * stored entry is still valid.
+ */
+@Slf4j
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon.internal"})
+public class TransformCacheChain {
+
+    static final byte[] UNCHANGED = new byte[0];
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final List<TransformCache> caches;
+    private final byte[] fingerprint;
+
+    public TransformCacheChain(List<TransformCache> caches, List<Transformer> transformers) {
+        this.caches = caches;
+        this.fingerprint = caches.isEmpty() ? null : fingerprint(transformers);
+        if (!caches.isEmpty() && fingerprint == null) {
+            transformers.stream().filter(it -> it.getFingerprint() == null).findFirst()
+                    .ifPresent(it -> log.info("Transformer {} has no fingerprint; transform caching disabled.", it));
+        }
+    }
+
+    /**
+     * Computes the cache key for a class.
+     *
+     * @param name  The full class name.
+     * @param bytes The original (untransformed) class bytes.
+     * @return The cache key, or null if caching is disabled.
+     */
+    public String key(String name, byte[] bytes) {
+        return key(name, ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Computes the cache key for a class held in a buffer, without copying it.
+     *
+     * @param name  The full class name.
+     * @param bytes The original (untransformed) class bytes, between the buffer's position and limit. The buffer itself
+     *              isn't modified.
+     * @return The cache key, or null if caching is disabled.
+     */
+    public String key(String name, ByteBuffer bytes) {
+        if (fingerprint == null) {
+            return null;
+        }
+        MessageDigest digest = sha256();
+        digest.update(fingerprint);
+        digest.update(name.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(bytes.duplicate());
+        return hex(digest.digest());
+    }
+
+    /**
+     * Looks up a key in each tier in order. On a hit, any earlier tiers which missed are backfilled.
+     *
+     * @param key The cache key.
+     * @return The cached bytes, {@link #UNCHANGED} if the transformers made no changes, or null on a miss.
+     */
+    public byte[] get(String key) {
+        for (int i = 0; i < caches.size(); i++) {
+            byte[] cached = caches.get(i).get(key);
+            if (cached != null) {
+                for (int j = 0; j < i; j++) {
+                    caches.get(j).put(key, cached);
+                }
+                return cached.length == 0 ? UNCHANGED : cached;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores a result in all tiers.
+     *
+     * @param key   The cache key.
+     * @param bytes The transformed bytes, or {@link #UNCHANGED}.
+     */
+    public void put(String key, byte[] bytes) {
+        for (TransformCache cache : caches) {
+            cache.put(key, bytes);
+        }
+    }
+
+    /**
+     * @return A hash of the fingerprints of all the transformers, in order, or null if any of them has no fingerprint.
+     */
+    static byte[] fingerprint(List<Transformer> transformers) {
+        MessageDigest digest = sha256();
+        for (Transformer transformer : transformers) {
+            String print = transformer.getFingerprint();
+            if (print == null) {
+                return null;
+            }
+            digest.update(print.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return digest.digest();
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // Every JRE is required to provide SHA-256.
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            out[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(out);
+    }
+
+}
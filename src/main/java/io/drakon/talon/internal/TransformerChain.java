@@ -0,0 +1,197 @@
+package io.drakon.talon.internal;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import io.drakon.talon.BufferTransformer;
+import io.drakon.talon.TalonClassWriter;
+import io.drakon.talon.TransformOutput;
+import io.drakon.talon.Transformer;
+import io.drakon.talon.VisitorTransformer;
+import lombok.extern.slf4j.Slf4j;
+import org.apiguardian.api.API;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+/**
+ * Runs the registered transformers over a class in registration order.
+ * <p>
+ * Runs of consecutive {@link VisitorTransformer} instances are fused into a single {@link ClassReader} to
+ * {@link ClassWriter} pass, while plain {@link Transformer} instances run on the byte array between fused passes, and
+ * {@link BufferTransformer} instances on a buffer view, so the bytes are only copied when something needs an array. Only
+ * transformers whose {@link io.drakon.talon.Interest} matches the class are run, as selected by an {@link InterestIndex}.
+ * Selection is redone after any transformer changes the class, and fused runs end before any skipped transformer whose
+ * interest depends on the class contents, so a transformer is never skipped because of the bytes it would have seen
+ * before an earlier transformer ran.
+ */
+@Slf4j
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon.internal"})
+public class TransformerChain {
+
+    private final List<Transformer> transformers;
+    private final InterestIndex interests;
+    private final LoaderMetrics metrics;
+
+    public TransformerChain(List<Transformer> transformers, LoaderMetrics metrics) {
+        this.transformers = transformers;
+        this.interests = new InterestIndex(transformers);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Runs the chain over a class.
+     *
+     * @param name       The full class name.
+     * @param className  The simple class name.
+     * @param pkgName    The package name.
+     * @param classBytes The class bytes.
+     * @return The transformed class bytes, or null if no transformer made any changes.
+     */
+    public byte[] transform(String name, String className, String pkgName, byte[] classBytes) {
+        ClassBytes out = transform(name, className, pkgName, ClassBytes.of(classBytes), ByteBuffer::allocate);
+        return out == null ? null : out.array();
+    }
+
+    /**
+     * Runs the chain over a class, keeping the bytes in buffers for as long as only {@link BufferTransformer}s are
+     * involved.
+     *
+     * @param name       The full class name.
+     * @param className  The simple class name.
+     * @param pkgName    The package name.
+     * @param classBytes The class bytes.
+     * @param output     Where {@link BufferTransformer}s get their output buffers.
+     * @return The transformed class bytes, or null if no transformer made any changes.
+     */
+    ClassBytes transform(String name, String className, String pkgName, ClassBytes classBytes, TransformOutput output) {
+        BitSet selected = null;
+        if (!interests.isTrivial()) {
+            selected = interests.select(name, pkgName, classBytes.array());
+            if (selected.isEmpty()) {
+                log.trace("No transformers interested in {}", name);
+                return null;
+            }
+        }
+
+        ClassBytes bytes = classBytes;
+        boolean hasTransformed = false;
+        int pos = 0;
+        int i = next(selected, pos);
+        while (i < transformers.size()) {
+            Transformer transformer = transformers.get(i);
+            ClassBytes newBytes;
+            if (transformer instanceof VisitorTransformer) {
+                List<Integer> group = new ArrayList<>();
+                while (i < transformers.size() && transformers.get(i) instanceof VisitorTransformer) {
+                    group.add(i);
+                    pos = i + 1;
+                    i = next(selected, pos);
+                    // Don't fuse across a transformer which an earlier member might make interested, so that it's
+                    // reconsidered (in order) once the group has run.
+                    if (selected != null && interests.hasUnselectedContentDependent(selected, pos, i)) {
+                        break;
+                    }
+                }
+                byte[] fused = runFused(group, name, className, pkgName, bytes.array());
+                newBytes = fused == null ? null : ClassBytes.of(fused);
+            } else {
+                log.trace("Running transformer {} on {}", transformer, name);
+                long start = System.nanoTime();
+                try {
+                    newBytes = run(transformer, className, pkgName, bytes, output);
+                } catch (RuntimeException | Error ex) {
+                    metrics.recordTransformerException(i, System.nanoTime() - start);
+                    throw ex;
+                }
+                metrics.recordTransformer(i, System.nanoTime() - start, newBytes != null);
+                log.trace(newBytes != null ? "Transformer {} applied on {}" : "Transformer {} made no changes to {}", transformer, name);
+                pos = i + 1;
+                i = next(selected, pos);
+            }
+
+            if (newBytes != null) {
+                bytes = newBytes;
+                hasTransformed = true;
+                if (selected != null && pos < transformers.size()) {
+                    // Earlier transformers may have introduced symbols later ones are interested in, so reselect.
+                    selected = interests.select(name, pkgName, bytes.array());
+                    i = next(selected, pos);
+                }
+            }
+        }
+        return hasTransformed ? bytes : null;
+    }
+
+    private static ClassBytes run(Transformer transformer, String className, String pkgName, ClassBytes bytes,
+                                  TransformOutput output) {
+        if (transformer instanceof BufferTransformer) {
+            ByteBuffer out = ((BufferTransformer) transformer).transform(className, pkgName, bytes.buffer(), output);
+            return out == null ? null : ClassBytes.of(out);
+        }
+        byte[] out = transformer.transform(className, pkgName, bytes.array());
+        return out == null ? null : ClassBytes.of(out);
+    }
+
+    private int next(BitSet selected, int from) {
+        if (selected == null) {
+            return from;
+        }
+        int next = selected.nextSetBit(from);
+        return next == -1 ? transformers.size() : next;
+    }
+
+    private byte[] runFused(List<Integer> group, String name, String className, String pkgName, byte[] bytes) {
+        long start = System.nanoTime();
+        int writerFlags = 0;
+        for (int index : group) {
+            writerFlags |= ((VisitorTransformer) transformers.get(index)).getWriterFlags();
+        }
+
+        // Passing the reader lets ASM copy untouched methods verbatim, but that's only valid if frames aren't being
+        // recomputed from scratch.
+        ClassReader reader = new ClassReader(bytes);
+        boolean computeFrames = (writerFlags & ClassWriter.COMPUTE_FRAMES) != 0;
+        ClassWriter writer = computeFrames ? new TalonClassWriter(writerFlags) : new TalonClassWriter(reader, writerFlags);
+
+        // Build back to front, so the first registered transformer is the first to see each event.
+        ClassVisitor chain = writer;
+        List<Integer> applied = new ArrayList<>(group.size());
+        try {
+            for (int i = group.size() - 1; i >= 0; i--) {
+                int index = group.get(i);
+                VisitorTransformer transformer = (VisitorTransformer) transformers.get(index);
+                ClassVisitor visitor = transformer.createVisitor(className, pkgName, chain);
+                if (visitor != chain) {
+                    log.trace("Fusing transformer {} into pass over {}", transformer, name);
+                    chain = visitor;
+                    applied.add(index);
+                } else {
+                    log.trace("Transformer {} made no changes to {}", transformer, name);
+                    metrics.recordTransformer(index, 0, false);
+                }
+            }
+            if (applied.isEmpty()) {
+                return null;
+            }
+
+            reader.accept(chain, computeFrames ? ClassReader.SKIP_FRAMES : 0);
+            byte[] out = writer.toByteArray();
+            long share = (System.nanoTime() - start) / applied.size();
+            for (int index : applied) {
+                metrics.recordTransformer(index, share, true);
+            }
+            return out;
+        } catch (RuntimeException | Error ex) {
+            // No way to tell which visitor in the pass threw, so they all share the blame.
+            long share = (System.nanoTime() - start) / group.size();
+            for (int index : group) {
+                metrics.recordTransformerException(index, share);
+            }
+            throw ex;
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+package io.drakon.talon.internal;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apiguardian.api.API;
+
+/**
+ * Snapshot of a single transformer's statistics, as exposed by {@link LoaderMetricsMXBean#getTransformerStats()}.
+ * <p>
+ * The latency histogram has one bucket per power of two nanoseconds: bucket <i>n</i> counts invocations which took
+ * less than 2<sup>n</sup>ns (and at least 2<sup>n-1</sup>ns).
+ */
+@Getter
+@AllArgsConstructor
+@API(status = API.Status.INTERNAL, consumers = {"io.drakon.talon"})
+public class TransformerStats {
+
+    private final String name;
+    private final long invocations;
+    private final long modified;
+    private final long unchanged;
+    private final long exceptions;
+    private final long totalNanos;
+    private final long[] latencyHistogram;
+
+    /**
+     * @return An upper bound on the median invocation latency, from the histogram.
+     */
+    public long getP50Nanos() {
+        return percentile(0.5);
+    }
+
+    /**
+     * @return An upper bound on the 99th percentile invocation latency, from the histogram.
+     */
+    public long getP99Nanos() {
+        return percentile(0.99);
+    }
+
+    private long percentile(double fraction) {
+        long total = 0;
+        for (long count : latencyHistogram) {
+            total += count;
+        }
+        long target = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < latencyHistogram.length; i++) {
+            seen += latencyHistogram[i];
+            if (seen >= target && seen > 0) {
+                return 1L << i;
+            }
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,80 @@
+package io.drakon.talon.test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import io.drakon.talon.Talon;
+import io.drakon.talon.test.transformers.CountingTransformer;
+import org.junit.jupiter.api.Test;
+
+class ConcurrencyTests {
+
+    private static final String WHITELIST_DIR = "io.drakon.talon.test.examples";
+    private static final String[] CLASSES = new String[]{
+            "io.drakon.talon.test.examples.Main",
+            "io.drakon.talon.test.examples.WithJavaDeps",
+            "io.drakon.talon.test.examples.WithBlacklistedDeps",
+            "io.drakon.talon.test.examples.WithWhitelistedDeps",
+    };
+    private static final int THREADS = 16;
+    private static final int ROUNDS = 20;
+
+    @Test
+    void testParallelLoadingDefinesEachClassOnce() {
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+            try {
+                for (int round = 0; round < ROUNDS; round++) {
+                    runRound(pool, round);
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        });
+    }
+
+    private static void runRound(ExecutorService pool, int round) throws Exception {
+        try (Talon talon = new Talon()) {
+            talon.addWhitelistedPackage(WHITELIST_DIR);
+            CountingTransformer transformer = new CountingTransformer();
+            talon.addTransformer(transformer);
+            talon.start();
+            ClassLoader loader = talon.getClassLoader();
+
+            CyclicBarrier barrier = new CyclicBarrier(THREADS);
+            List<Future<Class<?>[]>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                // Stagger the starting class so threads collide on different names in different orders.
+                int offset = (t + round) % CLASSES.length;
+                futures.add(pool.submit(() -> {
+                    Class<?>[] loaded = new Class<?>[CLASSES.length];
+                    barrier.await();
+                    for (int i = 0; i < CLASSES.length; i++) {
+                        int idx = (i + offset) % CLASSES.length;
+                        loaded[idx] = loader.loadClass(CLASSES[idx]);
+                    }
+                    return loaded;
+                }));
+            }
+
+            Class<?>[] first = futures.get(0).get();
+            for (Future<Class<?>[]> future : futures) {
+                assertThat(future.get()).containsExactly(first);
+            }
+            for (Class<?> clazz : first) {
+                assertThat(clazz.getClassLoader()).isSameAs(loader);
+            }
+            assertThat(transformer.getCounts()).containsOnlyKeys(CLASSES);
+            for (AtomicInteger count : transformer.getCounts().values()) {
+                assertThat(count.get()).isEqualTo(1);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,20 @@
+package io.drakon.talon.test;
+
+import java.io.File;
+
+import io.drakon.talon.cache.SharedFileTransformCache;
+
+/**
+ * Writes entries to a shared cache from a separate process, for {@link TalonTests}.
+ */
+public class SharedCacheWriter {
+
+    public static void main(String[] args) throws Exception {
+        try (SharedFileTransformCache cache = new SharedFileTransformCache(new File(args[0]), 1 << 20)) {
+            for (int i = 0; i < Integer.parseInt(args[2]); i++) {
+                cache.put(args[1] + i, (args[1] + i).getBytes("UTF-8"));
+            }
+        }
+    }
+
+}
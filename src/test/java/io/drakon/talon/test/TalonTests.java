@@ -1,21 +1,125 @@
 package io.drakon.talon.test;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.xml.parsers.SAXParser;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.drakon.talon.BufferTransformer;
+import io.drakon.talon.ClassIndex;
+import io.drakon.talon.ClassIndexAware;
+import io.drakon.talon.Interest;
+import io.drakon.talon.LeakDetector;
+import io.drakon.talon.PreloadMode;
+import io.drakon.talon.PreloadReport;
 import io.drakon.talon.Talon;
+import io.drakon.talon.Transformer;
+import io.drakon.talon.VisitorTransformer;
+import io.drakon.talon.cache.DiskTransformCache;
+import io.drakon.talon.cache.HttpTransformCache;
+import io.drakon.talon.cache.MemoryTransformCache;
+import io.drakon.talon.cache.SharedFileTransformCache;
+import io.drakon.talon.cache.TransformCache;
+import io.drakon.talon.cache.TransformCacheServer;
+import io.drakon.talon.internal.BootstrapIndex;
+import io.drakon.talon.internal.ClassArchive;
+import io.drakon.talon.internal.ClassDumper;
+import io.drakon.talon.internal.ClassHierarchy;
+import io.drakon.talon.internal.ClassLoadProfile;
+import io.drakon.talon.internal.ClassStaging;
+import io.drakon.talon.internal.ClasspathIndex;
+import io.drakon.talon.internal.ConstantPoolScanner;
+import io.drakon.talon.test.examples.Main;
+import io.drakon.talon.test.examples.ResidentGreeter;
+import io.drakon.talon.test.examples.WithJavaDeps;
+import io.drakon.talon.test.shared.Greeter;
+import io.drakon.talon.test.transformers.CountingTransformer;
 import io.drakon.talon.test.transformers.HasSeenAnyTransformer;
 import io.drakon.talon.test.transformers.StringReplacingTransformer;
+import io.drakon.talon.test.transformers.StringReplacingVisitorTransformer;
 import io.drakon.talon.transformers.DebugTransformer;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
 
 @Slf4j
 class TalonTests {
 
     private static final String WHITELIST_DIR = "io.drakon.talon.test.examples";
+    private static final String[] EXAMPLES = new String[]{
+            "io.drakon.talon.test.examples.Main",
+            "io.drakon.talon.test.examples.MarkedRunnable",
+            "io.drakon.talon.test.examples.WithJavaDeps",
+            "io.drakon.talon.test.examples.WithBlacklistedDeps",
+            "io.drakon.talon.test.examples.WithWhitelistedDeps",
+    };
+
+    private final List<File> tempFiles = new ArrayList<>();
+
+    @AfterEach
+    void deleteTempFiles() {
+        tempFiles.forEach(FileUtils::deleteQuietly);
+    }
+
+    private File tempDir(String prefix) throws IOException {
+        File dir = Files.createTempDirectory(prefix).toFile();
+        tempFiles.add(dir);
+        return dir;
+    }
+
+    private File tempFile(String prefix, String suffix) throws IOException {
+        File file = File.createTempFile(prefix, suffix);
+        tempFiles.add(file);
+        return file;
+    }
 
     @Test
     void testSmoke() {
@@ -114,4 +218,1148 @@ class TalonTests {
         assertThat(talon.start()).isEqualTo("pass");
     }
 
+    @Test
+    void testFusedVisitorTransformersKeepOrder() throws Exception {
+        Talon talon = new Talon("io.drakon.talon.test.examples.Main", "testNoArgs", false);
+        talon.addWhitelistedPackage(WHITELIST_DIR);
+        talon.addTransformer(new StringReplacingVisitorTransformer("hello", "middle"));
+        talon.addTransformer(new StringReplacingVisitorTransformer("middle", "pass"));
+        assertThat(talon.start()).isEqualTo("pass");
+    }
+
+    @Test
+    void testFusedVisitorTransformersAroundLegacyTransformer() throws Exception {
+        Talon talon = new Talon("io.drakon.talon.test.examples.Main", "testNoArgs", false);
+        talon.addWhitelistedPackage(WHITELIST_DIR);
+        HasSeenAnyTransformer legacy = new HasSeenAnyTransformer();
+        talon.addTransformer(new StringReplacingVisitorTransformer("hello", "middle"));
+        talon.addTransformer(legacy);
+        talon.addTransformer(new StringReplacingVisitorTransformer("middle", "pass"));
+        assertThat(talon.start()).isEqualTo("pass");
+        assertThat(legacy.isHasSeenAny()).isTrue();
+    }
+
+    @Test
+    void testFusedVisitorTransformersShareOnePass() throws Exception {
+        Talon talon = new Talon("io.drakon.talon.test.examples.Main", "testNoArgs", false);
+        talon.addWhitelistedPackage(WHITELIST_DIR);
+        Map<String, AtomicInteger> passes = new ConcurrentHashMap<>();
+        talon.addTransformer(passCounting(new StringReplacingVisitorTransformer("hello", "first"), passes));
+        talon.addTransformer(passCounting(new StringReplacingVisitorTransformer("first", "second"), passes));
+        talon.addTransformer(passCounting(new StringReplacingVisitorTransformer("second", "pass"), passes));
+        assertThat(talon.start()).isEqualTo("pass");
+        assertThat(passes.get("Main")).hasValue(1);
+    }
+
+    @Test
+    void testFusedVisitorTransformersSplitByLegacyTransformer() throws Exception {
+        Talon talon = new Talon("io.drakon.talon.test.examples.Main", "testNoArgs", false);
+        talon.addWhitelistedPackage(WHITELIST_DIR);
+        Map<String, AtomicInteger> passes = new ConcurrentHashMap<>();
+        talon.addTransformer(passCounting(new StringReplacingVisitorTransformer("hello", "first"), passes));
+        talon.addTransformer(passCounting(new StringReplacingVisitorTransformer("first", "second"), passes));
+        talon.addTransformer(new HasSeenAnyTransformer());
+        talon.addTransformer(passCounting(new StringReplacingVisitorTransformer("second", "pass"), passes));
+        assertThat(talon.start()).isEqualTo("pass");
+        assertThat(passes.get("Main")).hasValue(2);
+    }
+
+    // Counts read/write passes per class: only the last visitor in a pass is handed the writer itself.
+    private static VisitorTransformer passCounting(StringReplacingVisitorTransformer transformer, Map<String, AtomicInteger> passes) {
+        return new VisitorTransformer() {
+            @Override
+            public ClassVisitor createVisitor(String className, String pkgName, ClassVisitor next) {
+                if (next instanceof ClassWriter) {
+                    passes.computeIfAbsent(className, it -> new AtomicInteger()).incrementAndGet();
+                }
+                return transformer.createVisitor(className, pkgName, next);
+            }
+
+            @Override
+            public int getWriterFlags() {
+                return transformer.getWriterFlags();
+            }
+        };
+    }
+
+    @Test
+    void testFusedRunDoesNotSkipNewlyInterestedTransformer() throws Exception {
+        Talon talon = new Talon("io.drakon.talon.test.examples.Main", "testNoArgs", false);
+        talon.addWhitelistedPackage(WHITELIST_DIR);
+        // Only interested once the first visitor has introduced "middle", so the visitors either side can't be fused.
+        HasSeenAnyTransformer dependent = interestedTransformer(Interest.builder().referencedString("middle").build());
+        talon.addTransformer(new StringReplacingVisitorTransformer("hello", "middle"));
+        talon.addTransformer(dependent);
+        talon.addTransformer(uninterested(new StringReplacingVisitorTransformer("middle", "pass")));
+        assertThat(talon.start()).isEqualTo("pass");
+        assertThat(dependent.isHasSeenAny()).isTrue();
+    }
+
+    @Test
+    void testFusedRunDoesNotSkipNewlyInterestedVisitor() throws Exception {
+        Talon talon = new Talon("io.drakon.talon.test.examples.Main", "testNoArgs", false);
+        talon.addWhitelistedPackage(WHITELIST_DIR);
+        talon.addTransformer(new StringReplacingVisitorTransformer("hello", "middle"));
+        talon.addTransformer(new StringReplacingVisitorTransformer("middle", "pass"));
+        talon.addTransformer(uninterested(new StringReplacingVisitorTransformer("unused", "fail")));
+        assertThat(talon.start()).isEqualTo("pass");
+    }
+
+    private static VisitorTransformer uninterested(StringReplacingVisitorTransformer transformer) {
+        return new VisitorTransformer() {
+            @Override
+            public ClassVisitor createVisitor(String className, String pkgName, ClassVisitor next) {
+                return transformer.createVisitor(className, pkgName, next);
+            }
+
+            @Override
+            public int getWriterFlags() {
+                return transformer.getWriterFlags();
+            }
+        };
+    }
+
+    @Test
+    void testVisitorTransformerStandalone() throws Exception {
+        Talon talon = new Talon("io.drakon.talon.test.examples.Main", "testNoArgs", false);
+        talon.addWhitelistedPackage(WHITELIST_DIR);
+        StringReplacingVisitorTransformer replacing = new StringReplacingVisitorTransformer("hello", "pass");
+        talon.addTransformer((Transformer) (className, pkgName, classBytes) -> replacing.transform(className, pkgName, classBytes));
+        assertThat(talon.start()).isEqualTo("pass");
+    }
+
+    @Test
+    void testBufferTransformers() throws Exception {
+        Talon talon = new Talon("io.drakon.talon.test.examples.Main", "testNoArgs", false);
+        talon.addWhitelistedPackage(WHITELIST_DIR);
+        // Two in a row, so the second reads from a pooled output buffer and its output is defined straight from one.
+        talon.addTransformer(bufferTransformer(new StringReplacingVisitorTransformer("hello", "middle")));
+        talon.addTransformer(bufferTransformer(new StringReplacingVisitorTransformer("middle", "pass")));
+        assertThat(talon.start()).isEqualTo("pass");
+    }
+
+    private static BufferTransformer bufferTransformer(Transformer wrapped) {
+        return (className, pkgName, classBytes, output) -> {
+            byte[] in = new byte[classBytes.remaining()];
+            classBytes.get(in);
+            byte[] out = wrapped.transform(className, pkgName, in);
+            if (out == null) {
+                return null;
+            }
+            ByteBuffer buffer = output.allocate(out.length);
+            buffer.put(out).flip();
+            return buffer;
+        };
+    }
+
+    @Test
+    void testInterestByClassName() throws Exception {
+        HasSeenAnyTransformer transformer = interestedTransformer(Interest.builder()
+                .className("io.drakon.talon.test.examples.Main")
+                .build());
+        assertThat(loadExamples(transformer)).isEqualTo(1);
+    }
+
+    @Test
+    void testInterestByPackagePrefix() throws Exception {
+        HasSeenAnyTransformer transformer = interestedTransformer(Interest.builder()
+                .packagePrefix("io.drakon.talon.test")
+                .build());
+        assertThat(loadExamples(transformer)).isEqualTo(EXAMPLES.length);
+    }
+
+    @Test
+    void testInterestByPattern() throws Exception {
+        HasSeenAnyTransformer transformer = interestedTransformer(Interest.builder()
+                .classPattern("io.drakon.**.With*Deps")
+                .build());
+        assertThat(loadExamples(transformer)).isEqualTo(3);
+    }
+
+    @Test
+    void testInterestBySupertype() throws Exception {
+        HasSeenAnyTransformer transformer = interestedTransformer(Interest.builder()
+                .subtypeOf("java.lang.Runnable")
+                .build());
+        assertThat(loadExamples(transformer)).isEqualTo(1);
+    }
+
+    @Test
+    void testInterestByAnnotation() throws Exception {
+        HasSeenAnyTransformer transformer = interestedTransformer(Interest.builder()
+                .annotatedWith("io.drakon.talon.test.examples.Marker")
+                .build());
+        assertThat(loadExamples(transformer)).isEqualTo(1);
+    }
+
+    @Test
+    void testInterestNoMatches() throws Exception {
+        HasSeenAnyTransformer transformer = interestedTransformer(Interest.builder()
+                .packagePrefix("io.drakon.talon.test.example")
+                .build());
+        assertThat(loadExamples(transformer)).isZero();
+    }
+
+    @Test
+    void testInterestByReferencedString() throws Exception {
+        HasSeenAnyTransformer transformer = interestedTransformer(Interest.builder()
+                .referencedString("hello")
+                .build());
+        assertThat(loadExamples(transformer)).isEqualTo(1);
+    }
+
+    @Test
+    void testInterestByReferencedClass() throws Exception {
+        HasSeenAnyTransformer transformer = interestedTransformer(Interest.builder()
+                .referencedClass("org.objectweb.asm.util.ASMifier")
+                .build());
+        assertThat(loadExamples(transformer)).isEqualTo(1);
+    }
+
+    @Test
+    void testInterestByReferencedMember() throws Exception {
+        HasSeenAnyTransformer transformer = interestedTransformer(Interest.builder()
+                .referencedMember("org.objectweb.asm.util.ASMifier#<init>")
+                .referencedMember("java.util.Arrays#stream")
+                .build());
+        assertThat(loadExamples(transformer)).isEqualTo(2);
+    }
+
+    @Test
+    void testInterestSelectorsAndReferencedSymbolsCombine() throws Exception {
+        HasSeenAnyTransformer transformer = interestedTransformer(Interest.builder()
+                .classPattern("io.drakon.**.With*Deps")
+                .subtypeOf("java.lang.Runnable")
+                .referencedMember("java.util.Arrays#stream")
+                .build());
+        assertThat(loadExamples(transformer)).isEqualTo(1);
+    }
+
+    private static HasSeenAnyTransformer interestedTransformer(Interest interest) {
+        return new HasSeenAnyTransformer() {
+            @Override
+            public Interest getInterest() {
+                return interest;
+            }
+        };
+    }
+
+    @Test
+    void testExcludedPackageWithinWhitelist() throws Exception {
+        HasSeenAnyTransformer transformer = new HasSeenAnyTransformer();
+        assertThat(loadExamples(transformer, talon -> {
+            talon.addWhitelistedPackage(WHITELIST_DIR);
+            talon.addExcludedPackage("io.drakon.talon.test.examples.With*");
+        })).isEqualTo(2);
+    }
+
+    @Test
+    void testGlobWhitelist() throws Exception {
+        HasSeenAnyTransformer transformer = new HasSeenAnyTransformer();
+        assertThat(loadExamples(transformer, talon -> talon.addWhitelistedPackage("io.*.talon.**.examples")))
+                .isEqualTo(EXAMPLES.length);
+    }
+
+    @Test
+    void testSingleSegmentGlobDoesNotCrossPackages() throws Exception {
+        HasSeenAnyTransformer transformer = new HasSeenAnyTransformer();
+        assertThat(loadExamples(transformer, talon -> talon.addWhitelistedPackage("io.drakon.*.examples"))).isZero();
+    }
+
+    @Test
+    void testExcludeOverridesGlobWhitelist() throws Exception {
+        HasSeenAnyTransformer transformer = new HasSeenAnyTransformer();
+        assertThat(loadExamples(transformer, talon -> {
+            talon.addWhitelistedPackage("io.drakon.**");
+            talon.addExcludedPackage("io.drakon.talon.test");
+        })).isZero();
+    }
+
+    @Test
+    void testParentFirstPackageIsShared() throws Exception {
+        Talon first = new Talon();
+        first.addWhitelistedPackage(WHITELIST_DIR);
+        first.addParentFirstPackage("io.drakon.talon.test.examples.WithJava*");
+        HasSeenAnyTransformer transformer = new HasSeenAnyTransformer();
+        first.addTransformer(transformer);
+        first.start();
+        Talon second = new Talon();
+        second.addParentFirstPackage("io.drakon.talon.test.examples.WithJava*");
+        second.start();
+
+        Class<?> shared = first.getClassLoader().loadClass("io.drakon.talon.test.examples.WithJavaDeps");
+        assertThat(shared).isSameAs(WithJavaDeps.class);
+        assertThat(second.getClassLoader().loadClass("io.drakon.talon.test.examples.WithJavaDeps")).isSameAs(shared);
+        assertThat(transformer.getSeenCount()).isZero();
+        // Everything else in the whitelist is still defined (and transformed) by Talon.
+        assertThat(first.getClassLoader().loadClass("io.drakon.talon.test.examples.Main")).isNotSameAs(Main.class);
+        assertThat(transformer.getSeenCount()).isEqualTo(1);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertThat((Long) server.getAttribute(first.getMetricsName(), "ParentFirstClasses")).isEqualTo(1);
+    }
+
+    @Test
+    void testResolveMethodHandles() throws Throwable {
+        Talon talon = new Talon();
+        talon.addWhitelistedPackage(WHITELIST_DIR);
+        talon.start();
+
+        MethodHandle staticHandle = talon.resolve("io.drakon.talon.test.examples.Main", "testStaticNoArgs", true,
+                MethodType.methodType(String.class));
+        assertThat((String) staticHandle.invokeExact()).isEqualTo("hello");
+        MethodHandle instanceHandle = talon.resolve("io.drakon.talon.test.examples.Main", "testArgs", false,
+                MethodType.methodType(Object.class, Object.class));
+        Object arg = new Object();
+        assertThat((Object) instanceHandle.invokeExact(arg)).isSameAs(arg);
+        // Main is defined separately by Talon, so it can't appear in the type.
+        assertThatThrownBy(() -> talon.resolve("io.drakon.talon.test.examples.Main", "testNoArgs", false,
+                MethodType.methodType(String.class, Main.class))).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testResidentInstanceProxy() throws Exception {
+        Talon talon = new Talon();
+        talon.addWhitelistedPackage(WHITELIST_DIR);
+        assertThatThrownBy(() -> talon.newResidentInstance(Greeter.class, "io.drakon.talon.test.examples.ResidentGreeter"))
+                .isInstanceOf(IllegalStateException.class);
+        talon.start();
+
+        // Talon has its own copy of Greeter, so a proxy is needed to call it through the outside one.
+        Greeter greeter = talon.newResidentInstance(Greeter.class, "io.drakon.talon.test.examples.ResidentGreeter");
+        assertThat(greeter).isNotInstanceOf(ResidentGreeter.class);
+        assertThat(greeter.getClass().getClassLoader().getParent()).isSameAs(talon.getClassLoader());
+        assertThat(greeter.greet("world")).isEqualTo("hello world");
+        assertThat(greeter.add(1, 1L << 40)).isEqualTo((1L << 40) + 1);
+        assertThat(greeter.describe()).isEqualTo("greeter");
+        Greeter another = talon.newResidentInstance(Greeter.class, "io.drakon.talon.test.examples.ResidentGreeter");
+        assertThat(another.getClass()).isSameAs(greeter.getClass());
+
+        assertThatThrownBy(() -> talon.newResidentInstance(Greeter.class, "io.drakon.talon.test.examples.Main"))
+                .isInstanceOf(IllegalArgumentException.class);
+        talon.close();
+        assertThatThrownBy(() -> talon.newResidentInstance(Greeter.class, "io.drakon.talon.test.examples.ResidentGreeter"))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void testResidentInstanceSharedInterface() throws Exception {
+        Talon talon = new Talon();
+        talon.addWhitelistedPackage(WHITELIST_DIR);
+        talon.addParentFirstPackage("io.drakon.talon.test.shared");
+        talon.start();
+
+        Greeter greeter = talon.newResidentInstance(Greeter.class, "io.drakon.talon.test.examples.ResidentGreeter");
+        assertThat(greeter.getClass().getName()).isEqualTo("io.drakon.talon.test.examples.ResidentGreeter");
+        assertThat(greeter.getClass().getClassLoader()).isSameAs(talon.getClassLoader());
+        assertThat(greeter.greet("world")).isEqualTo("hello world");
+    }
+
+    @Test
+    void testCloseReleasesClassLoader() throws Exception {
+        File profileFile = tempFile("talon-profile", ".txt");
+        LeakDetector detector = startAndClose(profileFile, null);
+        assertThat(detector.awaitUnloaded(30, TimeUnit.SECONDS)).isTrue();
+        assertThat(ClassLoadProfile.read(profileFile)).contains("io.drakon.talon.test.examples.Main");
+    }
+
+    @Test
+    void testLeakDetectorFindsPinningThread() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        LeakDetector detector = startAndClose(null, loader -> {
+            Thread pinning = new Thread(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    // Exit.
+                }
+            }, "talon-test-pinning");
+            pinning.setContextClassLoader(loader);
+            pinning.start();
+        });
+        assertThat(detector.awaitUnloaded(1, TimeUnit.SECONDS)).isFalse();
+        assertThat(detector.findSuspects()).anyMatch(it -> it.contains("talon-test-pinning"));
+
+        release.countDown();
+        assertThat(detector.awaitUnloaded(30, TimeUnit.SECONDS)).isTrue();
+        assertThat(detector.findSuspects()).isEmpty();
+    }
+
+    // Kept out of the tests themselves, so that no local variable there can keep the loader reachable.
+    private static LeakDetector startAndClose(File profileFile, Consumer<ClassLoader> leak) throws Exception {
+        Talon talon = new Talon("io.drakon.talon.test.examples.Main", "testNoArgs", false);
+        talon.addWhitelistedPackage(WHITELIST_DIR);
+        talon.addTransformer(new StringReplacingVisitorTransformer("hello", "pass"));
+        talon.setSpeculativePrefetch(true);
+        talon.setProfileRecordFile(profileFile);
+        assertThat(talon.start()).isEqualTo("pass");
+        talon.getClassLoader().loadClass("io.drakon.talon.test.examples.WithWhitelistedDeps");
+        if (leak != null) {
+            leak.accept(talon.getClassLoader());
+        }
+        ObjectName metricsName = talon.getMetricsName();
+        assertThat(talon.getLeakDetector()).isNull();
+
+        talon.close();
+        assertThat(talon.getClassLoader()).isNull();
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(metricsName)).isFalse();
+        assertThatThrownBy(talon::start).isInstanceOf(Talon.AlreadyStartedException.class);
+        return talon.getLeakDetector();
+    }
+
+    private static int loadExamples(HasSeenAnyTransformer transformer) throws Exception {
+        return loadExamples(transformer, talon -> talon.addWhitelistedPackage(WHITELIST_DIR));
+    }
+
+    private static int loadExamples(HasSeenAnyTransformer transformer, Consumer<Talon> configure) throws Exception {
+        try (Talon talon = new Talon()) {
+            configure.accept(talon);
+            talon.addTransformer(transformer);
+            talon.start();
+            for (String example : EXAMPLES) {
+                talon.getClassLoader().loadClass(example);
+            }
+        }
+        return transformer.getSeenCount();
+    }
+
+    @Test
+    void testClassStagingEvictsOldestSpeculativeEntries() {
+        ClassStaging staging = new ClassStaging(2);
+        assertThat(staging.stage("Profiled", () -> new byte[1], false)).isTrue();
+        assertThat(staging.stage("First", () -> new byte[1], true)).isTrue();
+        assertThat(staging.stage("Second", () -> new byte[1], true)).isTrue();
+        assertThat(staging.stage("Third", () -> new byte[1], true)).isTrue();
+        assertThat(staging.contains("First")).isFalse();
+        assertThat(staging.contains("Second")).isTrue();
+        assertThat(staging.contains("Third")).isTrue();
+        assertThat(staging.contains("Profiled")).isTrue();
+        // Nothing to keep if the class couldn't be prepared.
+        assertThat(staging.stage("Missing", () -> null, true)).isTrue();
+        assertThat(staging.contains("Missing")).isFalse();
+    }
+
+    @Test
+    void testClassStagingClaimReservesName() {
+        ClassStaging staging = new ClassStaging(16);
+        staging.stage("Staged", () -> new byte[3], true);
+        assertThat(staging.claim("Staged")).hasSize(3);
+        assertThat(staging.claim("Unstaged")).isNull();
+        // Claimed names can't be staged again until they're released, i.e. until the class is defined.
+        AtomicInteger prepared = new AtomicInteger();
+        assertThat(staging.stage("Staged", () -> new byte[prepared.incrementAndGet()], true)).isFalse();
+        assertThat(staging.stage("Unstaged", () -> new byte[prepared.incrementAndGet()], true)).isFalse();
+        assertThat(prepared).hasValue(0);
+        staging.release("Staged");
+        staging.release("Unstaged");
+        assertThat(staging.size()).isZero();
+    }
+
+    @Test
+    void testBootstrapIndex() {
+        BootstrapIndex index = BootstrapIndex.get();
+        assertThat(index.mayContain("java.lang.String")).isTrue();
+        assertThat(index.mayContain("javax.xml.parsers.SAXParser")).isTrue();
+        assertThat(index.mayContain("io.drakon.talon.test.examples.Main")).isFalse();
+        assertThat(index.mayContain("NoPackage")).isFalse();
+
+        index.recordMiss("javax.xml.parsers.DoesNotExist");
+        assertThat(index.mayContain("javax.xml.parsers.DoesNotExist")).isFalse();
+    }
+
+    @Test
+    void testBootstrapIndexFallsBackToDefinedPackages() throws Exception {
+        // An empty snapshot stands in for one taken before an agent appended to the bootstrap search path.
+        Constructor<BootstrapIndex> constructor = BootstrapIndex.class.getDeclaredConstructor(Set.class);
+        constructor.setAccessible(true);
+        BootstrapIndex index = constructor.newInstance(Collections.emptySet());
+        assertThat(SAXParser.class.getClassLoader()).isNull();
+        assertThat(index.mayContain("javax.xml.parsers.SAXParser")).isTrue();
+        assertThat(index.mayContain("io.drakon.talon.test.examples.Main")).isFalse();
+    }
+
+    @Test
+    void testBootstrapIndexBoundsMisses() {
+        BootstrapIndex index = BootstrapIndex.get();
+        for (int i = 0; i < 10_000; i++) {
+            index.recordMiss("javax.xml.parsers.Missing" + i);
+        }
+        assertThat(index.mayContain("javax.xml.parsers.Missing0")).isTrue();
+        assertThat(index.mayContain("javax.xml.parsers.Missing9999")).isFalse();
+    }
+
+    @Test
+    void testClassHierarchyFromBytecode() {
+        ClassHierarchy hierarchy = ClassHierarchy.system();
+        assertThat(hierarchy.getCommonSuperClass("java/util/ArrayList", "java/util/LinkedList")).isEqualTo("java/util/AbstractList");
+        assertThat(hierarchy.getCommonSuperClass("java/lang/Integer", "java/lang/Long")).isEqualTo("java/lang/Number");
+        assertThat(hierarchy.getCommonSuperClass("java/lang/Integer", "java/lang/String")).isEqualTo("java/lang/Object");
+        assertThat(hierarchy.getCommonSuperClass("java/util/List", "java/util/ArrayList")).isEqualTo("java/util/List");
+        assertThat(hierarchy.getCommonSuperClass("java/lang/Runnable", "java/util/ArrayList")).isEqualTo("java/lang/Object");
+        assertThat(hierarchy.getCommonSuperClass("io/drakon/talon/test/examples/MarkedRunnable", "java/lang/Runnable"))
+                .isEqualTo("java/lang/Runnable");
+        assertThatThrownBy(() -> hierarchy.getCommonSuperClass("io/drakon/talon/test/examples/DoesNotExist", "java/lang/String"))
+                .isInstanceOf(TypeNotPresentException.class);
+    }
+
+    @Test
+    void testClasspathIndexReadsJarsAndDirectories() throws Exception {
+        ClasspathIndex index = ClasspathIndex.system();
+        for (String entry : new String[]{"org/objectweb/asm/util/ASMifier.class", "io/drakon/talon/test/examples/Main.class"}) {
+            assertThat(index.contains(entry)).isTrue();
+            try (InputStream stream = ClassLoader.getSystemResourceAsStream(entry)) {
+                byte[] expected = IOUtils.toByteArray(stream);
+                assertThat(index.read(entry)).isEqualTo(expected);
+                ByteBuffer buffer = index.readBuffer(entry);
+                byte[] buffered = new byte[buffer.remaining()];
+                buffer.get(buffered);
+                assertThat(buffered).isEqualTo(expected);
+            }
+        }
+        assertThat(index.read("io/drakon/talon/test/examples/DoesNotExist.class")).isNull();
+        assertThat(index.readBuffer("io/drakon/talon/test/examples/DoesNotExist.class")).isNull();
+    }
+
+    @Test
+    void testClasspathIndexMapsAgainAfterRelease() throws Exception {
+        ClasspathIndex index = ClasspathIndex.system();
+        String entry = "org/objectweb/asm/util/ASMifier.class";
+        byte[] expected = index.read(entry);
+        index.retain();
+        index.release();
+        assertThat(index.read(entry)).isEqualTo(expected);
+
+        Talon talon = new Talon();
+        talon.addWhitelistedPackage(WHITELIST_DIR);
+        talon.start();
+        talon.close();
+        assertThat(index.read(entry)).isEqualTo(expected);
+    }
+
+    @Test
+    void testClassArchiveRoundTrip() throws Exception {
+        Map<String, byte[]> classes = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            classes.put("io.drakon.talon.test.Archived" + i, i % 10 == 0 ? new byte[0] : ("class " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        File file = tempFile("talon-archive", ".tca");
+        ClassArchive.write(file, "stamp", classes);
+
+        ClassArchive archive = ClassArchive.open(file);
+        assertThat(archive.size()).isEqualTo(5000);
+        assertThat(archive.getStamp()).isEqualTo("stamp");
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            ByteBuffer buffer = archive.get(entry.getKey());
+            if (entry.getValue().length == 0) {
+                assertThat(buffer).isSameAs(ClassArchive.UNCHANGED);
+            } else {
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                assertThat(bytes).isEqualTo(entry.getValue());
+            }
+        }
+        assertThat(archive.get("io.drakon.talon.test.NotArchived")).isNull();
+    }
+
+    @Test
+    void testClassArchiveSkipsTransformers() throws Exception {
+        File file = tempFile("talon-archive", ".tca");
+        Talon compiling = new Talon();
+        compiling.addWhitelistedPackage(WHITELIST_DIR);
+        compiling.addTransformer(new StringReplacingVisitorTransformer("hello", "pass"));
+        assertThat(compiling.compileArchive(file)).isGreaterThanOrEqualTo(EXAMPLES.length);
+
+        Talon talon = new Talon("io.drakon.talon.test.examples.Main", "testNoArgs", false);
+        talon.addWhitelistedPackage(WHITELIST_DIR);
+        talon.addTransformer(new StringReplacingVisitorTransformer("hello", "pass"));
+        talon.setClassArchive(file);
+        assertThat(talon.start()).isEqualTo("pass");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertThat((Long) server.getAttribute(talon.getMetricsName(), "ArchivedClasses")).isGreaterThanOrEqualTo(1);
+        CompositeData[] stats = (CompositeData[]) server.getAttribute(talon.getMetricsName(), "TransformerStats");
+        assertThat(stats[0].get("invocations")).isEqualTo(0L);
+
+        // A different transformer makes the archive stale, so it's ignored.
+        Talon changed = new Talon("io.drakon.talon.test.examples.Main", "testNoArgs", false);
+        changed.addWhitelistedPackage(WHITELIST_DIR);
+        changed.addTransformer(new StringReplacingVisitorTransformer("hello", "changed"));
+        changed.setClassArchive(file);
+        assertThat(changed.start()).isEqualTo("changed");
+        assertThat((Long) server.getAttribute(changed.getMetricsName(), "ArchivedClasses")).isZero();
+    }
+
+    @Test
+    void testCdsTrainingAndReplay() throws Exception {
+        File dir = tempDir("talon-cds");
+        Talon training = new Talon("io.drakon.talon.test.examples.Main", "testNoArgs", false);
+        training.addWhitelistedPackage(WHITELIST_DIR);
+        training.addTransformer(new StringReplacingVisitorTransformer("hello", "pass"));
+        training.setCdsTrainingDir(dir);
+        assertThat(training.start()).isEqualTo("pass");
+        training.saveCdsTraining();
+
+        File jar = new File(dir, "classes.jar");
+        try (JarFile jarFile = new JarFile(jar)) {
+            assertThat(jarFile.getEntry("io/drakon/talon/test/examples/Main.class")).isNotNull();
+        }
+        List<String> classlist = Files.readAllLines(new File(dir, "classlist").toPath());
+        assertThat(classlist).anyMatch(it -> it.startsWith("java/lang/Object id: "));
+        assertThat(classlist).anyMatch(it -> it.startsWith("io/drakon/talon/test/examples/Main id: ")
+                && it.contains(" super: ") && it.endsWith(" source: " + jar.getAbsolutePath()));
+        assertThat(Files.readAllLines(new File(dir, "run.args").toPath())).hasSize(1);
+        // Otherwise its shutdown hook rewrites the training output after the directory is cleaned up.
+        training.close();
+
+        Talon replaying = new Talon("io.drakon.talon.test.examples.Main", "testNoArgs", false);
+        replaying.addWhitelistedPackage(WHITELIST_DIR);
+        replaying.addTransformer(new StringReplacingVisitorTransformer("hello", "pass"));
+        replaying.setCdsDir(dir);
+        assertThat(replaying.start()).isEqualTo("pass");
+        Class<?> main = replaying.getClassLoader().loadClass("io.drakon.talon.test.examples.Main");
+        assertThat(main.getProtectionDomain().getCodeSource().getLocation()).isEqualTo(jar.getAbsoluteFile().toURI().toURL());
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertThat((Long) server.getAttribute(replaying.getMetricsName(), "ArchivedClasses")).isGreaterThanOrEqualTo(1);
+
+        // A different transformer makes the recording stale, so it's ignored.
+        Talon changed = new Talon("io.drakon.talon.test.examples.Main", "testNoArgs", false);
+        changed.addWhitelistedPackage(WHITELIST_DIR);
+        changed.addTransformer(new StringReplacingVisitorTransformer("hello", "changed"));
+        changed.setCdsDir(dir);
+        assertThat(changed.start()).isEqualTo("changed");
+    }
+
+    @Test
+    void testClassDumperWritesJar() throws Exception {
+        File dumpDir = tempDir("talon-dump");
+        try (ClassDumper dumper = new ClassDumper(dumpDir, ClassDumper.Format.JAR, 16, ClassDumper.Overflow.BLOCK)) {
+            for (int i = 0; i < 100; i++) {
+                dumper.submit("io/drakon/talon/test/Dumped" + (i % 50) + ".class", new byte[]{(byte) i});
+            }
+            assertThat(dumper.flush(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(dumper.getWritten()).isEqualTo(50);
+            assertThat(dumper.getDropped()).isZero();
+        }
+
+        File[] jars = dumpDir.listFiles((dir, file) -> file.endsWith(".jar"));
+        assertThat(jars).hasSize(1);
+        try (JarFile jar = new JarFile(jars[0])) {
+            assertThat(jar.size()).isEqualTo(50);
+            try (InputStream stream = jar.getInputStream(jar.getEntry("io/drakon/talon/test/Dumped7.class"))) {
+                assertThat(IOUtils.toByteArray(stream)).containsExactly(7);
+            }
+        }
+    }
+
+    @Test
+    void testClassDumperWritesDirectory() throws Exception {
+        File dumpDir = tempDir("talon-dump");
+        try (ClassDumper dumper = new ClassDumper(dumpDir, ClassDumper.Format.DIR, 4, ClassDumper.Overflow.DROP)) {
+            for (int i = 0; i < 100; i++) {
+                dumper.submit("io/drakon/talon/test/Dumped" + i + ".class", new byte[]{(byte) i});
+            }
+            assertThat(dumper.flush(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(dumper.getWritten() + dumper.getDropped()).isEqualTo(100);
+            assertThat(new File(dumpDir, "io/drakon/talon/test/Dumped0.class")).hasBinaryContent(new byte[]{0});
+        }
+    }
+
+    @Test
+    void testClassDumperDoesNotBlockAfterWriterFails() throws Exception {
+        // The jar can't be created, so the writer fails on the first class while others are queued behind it.
+        File missing = new File(tempDir("talon-dump"), "missing");
+        ClassDumper dumper = new ClassDumper(missing, ClassDumper.Format.JAR, 2, ClassDumper.Overflow.BLOCK);
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            for (int i = 0; i < 100; i++) {
+                dumper.submit("io/drakon/talon/test/Dumped" + i + ".class", new byte[]{(byte) i});
+            }
+            assertThat(dumper.flush(5, TimeUnit.SECONDS)).isFalse();
+            dumper.close();
+        });
+        assertThat(dumper.getWritten()).isZero();
+    }
+
+    @Test
+    void testClassDumperFallsBackOnInvalidProperties() throws Exception {
+        File dumpDir = tempDir("talon-dump");
+        Properties properties = new Properties();
+        properties.setProperty("talon.saveClassesTo", dumpDir.getPath());
+        properties.setProperty("talon.saveClassesFormat", "zip");
+        properties.setProperty("talon.saveClassesOverflow", "sometimes");
+        properties.setProperty("talon.saveClassesQueue", "0");
+        try (ClassDumper dumper = ClassDumper.fromProperties(properties)) {
+            assertThat(dumper).isNotNull();
+            dumper.submit("io/drakon/talon/test/Dumped.class", new byte[]{1});
+            assertThat(dumper.flush(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(new File(dumpDir, "io/drakon/talon/test/Dumped.class")).hasBinaryContent(new byte[]{1});
+        }
+        assertThat(ClassDumper.fromProperties(new Properties())).isNull();
+    }
+
+    @Test
+    void testProfileRecordAndReplay() throws Exception {
+        File profileFile = new File(tempDir("talon-profile"), "classes.profile");
+        Talon recording = new Talon("io.drakon.talon.test.examples.WithWhitelistedDeps", "test", true);
+        recording.addWhitelistedPackage(WHITELIST_DIR);
+        recording.addTransformer(new StringReplacingVisitorTransformer("hello", "pass"));
+        recording.setProfileRecordFile(profileFile);
+        recording.setProfileReplayFile(profileFile); // Doesn't exist yet, so this is a no-op.
+        assertThat(recording.start()).isEqualTo("pass");
+        recording.saveProfile();
+        assertThat(ClassLoadProfile.read(profileFile)).containsSubsequence(
+                "io.drakon.talon.test.examples.WithWhitelistedDeps", "io.drakon.talon.test.examples.Main");
+        // Otherwise its shutdown hook rewrites the profile after the directory is cleaned up.
+        recording.close();
+
+        CountingTransformer counter = new CountingTransformer();
+        Talon replaying = new Talon();
+        replaying.addWhitelistedPackage(WHITELIST_DIR);
+        replaying.addTransformer(counter);
+        replaying.setProfileReplayFile(profileFile);
+        replaying.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (counter.getCounts().size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // Both classes were transformed in the background, and loading them doesn't transform them again.
+        replaying.getClassLoader().loadClass("io.drakon.talon.test.examples.WithWhitelistedDeps");
+        replaying.getClassLoader().loadClass("io.drakon.talon.test.examples.Main");
+        assertThat(counter.getCounts()).hasSize(2);
+        assertThat(counter.getCounts().values()).allMatch(it -> it.get() == 1);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertThat((Long) server.getAttribute(replaying.getMetricsName(), "StagedClasses")).isGreaterThanOrEqualTo(2);
+    }
+
+    @Test
+    void testSpeculativePrefetch() throws Exception {
+        try (InputStream stream = ClassLoader.getSystemResourceAsStream("io/drakon/talon/test/examples/WithWhitelistedDeps.class")) {
+            assertThat(ConstantPoolScanner.classReferences(IOUtils.toByteArray(stream))).contains(
+                    "io.drakon.talon.test.examples.WithWhitelistedDeps", "io.drakon.talon.test.examples.Main", "java.lang.Object");
+        }
+
+        CountingTransformer counter = new CountingTransformer();
+        Talon talon = new Talon();
+        talon.addWhitelistedPackage(WHITELIST_DIR);
+        talon.addTransformer(counter);
+        talon.setSpeculativePrefetch(true);
+        talon.start();
+        talon.getClassLoader().loadClass("io.drakon.talon.test.examples.WithWhitelistedDeps");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!counter.getCounts().containsKey("io.drakon.talon.test.examples.Main") && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        talon.getClassLoader().loadClass("io.drakon.talon.test.examples.Main");
+        assertThat(counter.getCounts().get("io.drakon.talon.test.examples.Main").get()).isEqualTo(1);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertThat((Long) server.getAttribute(talon.getMetricsName(), "StagedClasses")).isEqualTo(1);
+    }
+
+    @Test
+    void testPreloadBeforeTarget() throws Exception {
+        CountingTransformer counter = new CountingTransformer();
+        Talon talon = new Talon("io.drakon.talon.test.examples.WithWhitelistedDeps", "test", true);
+        talon.addWhitelistedPackage(WHITELIST_DIR);
+        talon.addTransformer(counter);
+        talon.setPreloadMode(PreloadMode.BEFORE_TARGET);
+        assertThat(talon.start()).isEqualTo("hello");
+
+        PreloadReport report = talon.getPreloadReport().get();
+        assertThat(report.getClasses()).isGreaterThanOrEqualTo(EXAMPLES.length);
+        assertThat(report.getFailures()).isZero();
+        assertThat(report.getPackages()).containsOnlyKeys(WHITELIST_DIR);
+        assertThat(report.getPackages().get(WHITELIST_DIR).getClasses()).isEqualTo(report.getClasses());
+        for (String example : EXAMPLES) {
+            assertThat(counter.getCounts().get(example).get()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void testClassIndex() throws Exception {
+        File indexFile = new File(tempDir("talon-index"), "classes.index");
+        AtomicReference<ClassIndex> seen = new AtomicReference<>();
+        Talon talon = new Talon();
+        talon.addWhitelistedPackage(WHITELIST_DIR);
+        talon.addTransformer(new IndexAwareTransformer(seen));
+        talon.enableClassIndex(indexFile);
+        talon.start();
+
+        ClassIndex index = talon.getClassIndex();
+        assertThat(seen.get()).isSameAs(index);
+        assertThat(index.getClasses()).contains(EXAMPLES);
+        assertThat(index.getSubtypes("java.lang.Runnable")).containsExactly("io.drakon.talon.test.examples.MarkedRunnable");
+        assertThat(index.getAnnotatedWith("io.drakon.talon.test.examples.Marker"))
+                .containsExactly("io.drakon.talon.test.examples.MarkedRunnable");
+        assertThat(index.getSuperclass("io.drakon.talon.test.examples.Main")).isEqualTo("java.lang.Object");
+        assertThat(index.isSubtypeOf("io.drakon.talon.test.examples.MarkedRunnable", "java.lang.Runnable")).isTrue();
+        assertThat(indexFile).isFile();
+        // Backdate the file so that a rewrite is visible whatever the filesystem's timestamp resolution.
+        long written = 1_000_000_000L;
+        assertThat(indexFile.setLastModified(written)).isTrue();
+
+        Talon warm = new Talon();
+        warm.addWhitelistedPackage(WHITELIST_DIR);
+        warm.enableClassIndex(indexFile);
+        warm.start();
+        assertThat(warm.getClassIndex().getClasses()).isEqualTo(index.getClasses());
+        assertThat(warm.getClassIndex().getAnnotatedWith("io.drakon.talon.test.examples.Marker"))
+                .isEqualTo(index.getAnnotatedWith("io.drakon.talon.test.examples.Marker"));
+        assertThat(indexFile.lastModified()).as("index reused, not rewritten").isEqualTo(written);
+
+        // Any change to the package rules invalidates the stamp.
+        Talon changed = new Talon();
+        changed.addWhitelistedPackage(WHITELIST_DIR);
+        changed.addExcludedPackage(WHITELIST_DIR + ".unused");
+        changed.enableClassIndex(indexFile);
+        changed.start();
+        assertThat(changed.getClassIndex().getClasses()).isEqualTo(index.getClasses());
+        assertThat(indexFile.lastModified()).as("index rebuilt").isNotEqualTo(written);
+    }
+
+    @Test
+    void testMetricsExposedOverJmx() throws Exception {
+        Talon talon = new Talon("io.drakon.talon.test.examples.WithWhitelistedDeps", "test", true);
+        talon.addWhitelistedPackage(WHITELIST_DIR);
+        talon.addTransformer(new HasSeenAnyTransformer());
+        talon.addTransformer(new StringReplacingVisitorTransformer("hello", "pass"));
+        assertThat(talon.start()).isEqualTo("pass");
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = talon.getMetricsName();
+        assertThat(name).isNotNull();
+        assertThat((Long) server.getAttribute(name, "ClassesDefined")).isGreaterThanOrEqualTo(2);
+        assertThat((Long) server.getAttribute(name, "DefineNanos")).isGreaterThan(0);
+
+        CompositeData[] stats = (CompositeData[]) server.getAttribute(name, "TransformerStats");
+        assertThat(stats).hasSize(2);
+        assertThat(stats[0].get("invocations")).isEqualTo(2L);
+        assertThat(stats[0].get("unchanged")).isEqualTo(2L);
+        // Only Main references "hello", so the replacing transformer is never invoked on WithWhitelistedDeps.
+        assertThat(stats[1].get("invocations")).isEqualTo(1L);
+        assertThat(stats[1].get("modified")).isEqualTo(1L);
+        assertThat(LongStream.of((long[]) stats[1].get("latencyHistogram")).sum()).isEqualTo(1L);
+    }
+
+    @Test
+    void testDiskTransformCacheWarmStart() throws Exception {
+        File cacheDir = tempDir("talon-cache");
+
+        DiskTransformCache cold = new DiskTransformCache(cacheDir);
+        assertThat(startWithCache(cold)).isEqualTo("pass");
+        assertThat(cold.getHits()).isZero();
+        assertThat(cold.getMisses()).isGreaterThan(0);
+
+        DiskTransformCache warm = new DiskTransformCache(cacheDir);
+        assertThat(startWithCache(warm)).isEqualTo("pass");
+        assertThat(warm.getHits()).isEqualTo(cold.getMisses());
+        assertThat(warm.getMisses()).isZero();
+    }
+
+    @Test
+    void testDiskTransformCacheIgnoresCorruptEntries() throws Exception {
+        File cacheDir = tempDir("talon-cache");
+        startWithCache(new DiskTransformCache(cacheDir));
+
+        List<Path> entries;
+        try (Stream<Path> files = Files.walk(cacheDir.toPath())) {
+            entries = files.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        assertThat(entries).isNotEmpty();
+        for (Path entry : entries) {
+            byte[] raw = Files.readAllBytes(entry);
+            Files.write(entry, Arrays.copyOf(raw, raw.length / 2));
+        }
+
+        DiskTransformCache cache = new DiskTransformCache(cacheDir);
+        assertThat(startWithCache(cache)).isEqualTo("pass");
+        assertThat(cache.getHits()).isZero();
+        assertThat(cache.getMisses()).isEqualTo(entries.size());
+    }
+
+    @Test
+    void testTransformCacheDisabledWithoutFingerprint() throws Exception {
+        File cacheDir = tempDir("talon-cache");
+        DiskTransformCache cache = new DiskTransformCache(cacheDir);
+        Talon talon = new Talon("io.drakon.talon.test.examples.Main", "testNoArgs", false);
+        talon.addWhitelistedPackage(WHITELIST_DIR);
+        talon.addTransformer(new HasSeenAnyTransformer());
+        talon.addTransformCache(cache);
+        assertThat(talon.start()).isEqualTo("hello");
+        assertThat(cache.getHits() + cache.getMisses()).isZero();
+    }
+
+    @Test
+    void testMemoryTransformCacheSharedBetweenInstances() throws Exception {
+        MemoryTransformCache cache = new MemoryTransformCache(1 << 20);
+        assertThat(startWithCache(cache)).isEqualTo("pass");
+        long misses = cache.getMisses();
+        assertThat(cache.getHits()).isZero();
+        assertThat(misses).isGreaterThan(0);
+
+        assertThat(startWithCache(cache)).isEqualTo("pass");
+        assertThat(cache.getHits()).isEqualTo(misses);
+        assertThat(cache.getMisses()).isEqualTo(misses);
+    }
+
+    @Test
+    void testMemoryTransformCacheEvictsLeastRecentlyUsed() {
+        // Small enough to be a single segment holding about sixteen 1KiB entries.
+        MemoryTransformCache cache = new MemoryTransformCache(16 * 1500);
+        String[] keys = new String[64];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = Integer.toHexString(i * 0x9E3779B9);
+            cache.put(keys[i], new byte[1024]);
+        }
+        assertThat(cache.getEvictions()).isGreaterThan(0);
+        assertThat(cache.getSizeBytes()).isLessThanOrEqualTo(16 * 1500);
+        assertThat(cache.get(keys[0])).isNull();
+        assertThat(cache.get(keys[keys.length - 1])).hasSize(1024);
+        assertThat(Arrays.stream(keys).filter(it -> cache.get(it) != null).count()).isLessThanOrEqualTo(24);
+    }
+
+    @Test
+    void testMemoryTransformCacheKeepsLargeEntries() {
+        // Well over a sixteenth of the limit, but still a fair share of it.
+        MemoryTransformCache cache = new MemoryTransformCache(1 << 20);
+        cache.put("large", new byte[256 << 10]);
+        assertThat(cache.get("large")).hasSize(256 << 10);
+        assertThat(cache.getSkipped()).isZero();
+
+        cache.put("huge", new byte[2 << 20]);
+        assertThat(cache.get("huge")).isNull();
+        assertThat(cache.getSkipped()).isEqualTo(1);
+    }
+
+    @Test
+    void testSharedFileTransformCacheWarmStart() throws Exception {
+        File cacheFile = new File(tempDir("talon-cache"), "shared.cache");
+        try (SharedFileTransformCache cold = new SharedFileTransformCache(cacheFile, 1 << 20)) {
+            assertThat(startWithCache(cold)).isEqualTo("pass");
+            assertThat(cold.getHits()).isZero();
+
+            try (SharedFileTransformCache warm = new SharedFileTransformCache(cacheFile, 1 << 20)) {
+                assertThat(startWithCache(warm)).isEqualTo("pass");
+                assertThat(warm.getHits()).isEqualTo(cold.getMisses());
+                assertThat(warm.getMisses()).isZero();
+            }
+        }
+    }
+
+    @Test
+    void testSharedFileTransformCacheRejectsCorruptIndex() throws Exception {
+        File cacheFile = tempFile("talon-cache", ".shared");
+        assertThat(cacheFile.delete()).isTrue();
+        new SharedFileTransformCache(cacheFile, 1 << 20).close();
+        for (int slots : new int[]{0, -1, Integer.MAX_VALUE}) {
+            try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw")) {
+                raf.seek(8); // Slot count.
+                raf.writeInt(slots);
+            }
+            assertThatThrownBy(() -> new SharedFileTransformCache(cacheFile, 1 << 20))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void testSharedFileTransformCacheTreatsDamagedEntryAsMiss() throws Exception {
+        File cacheFile = tempFile("talon-cache", ".shared");
+        assertThat(cacheFile.delete()).isTrue();
+        try (SharedFileTransformCache cache = new SharedFileTransformCache(cacheFile, 1 << 20)) {
+            cache.put("key", new byte[]{1, 2, 3});
+            assertThat(cache.get("key")).containsExactly(1, 2, 3);
+            int firstEntry;
+            try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "r")) {
+                raf.seek(8); // Slot count.
+                firstEntry = 24 + 8 * raf.readInt();
+            }
+            for (int length : new int[]{-1, Integer.MAX_VALUE, 1 << 20}) {
+                try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw")) {
+                    raf.seek(firstEntry + 4); // Payload length.
+                    raf.writeInt(length);
+                }
+                assertThat(cache.get("key")).isNull();
+            }
+        }
+    }
+
+    @Test
+    void testSharedFileTransformCacheAcrossProcesses() throws Exception {
+        File cacheFile = new File(tempDir("talon-cache"), "shared.cache");
+        try (SharedFileTransformCache cache = new SharedFileTransformCache(cacheFile, 1 << 20)) {
+            Process child = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                    "-cp", System.getProperty("java.class.path"), SharedCacheWriter.class.getName(),
+                    cacheFile.getPath(), "child-", "500").inheritIO().start();
+            for (int i = 0; i < 500; i++) {
+                cache.put("parent-" + i, ("parent-" + i).getBytes("UTF-8"));
+            }
+            assertThat(child.waitFor(60, TimeUnit.SECONDS)).isTrue();
+            assertThat(child.exitValue()).isZero();
+
+            for (int i = 0; i < 500; i++) {
+                assertThat(cache.get("parent-" + i)).isEqualTo(("parent-" + i).getBytes("UTF-8"));
+                assertThat(cache.get("child-" + i)).isEqualTo(("child-" + i).getBytes("UTF-8"));
+            }
+            assertThat(cache.get("missing")).isNull();
+        }
+    }
+
+    @Test
+    void testHttpTransformCacheWarmStart() throws Exception {
+        TransformCacheServer server = new TransformCacheServer(new InetSocketAddress("localhost", 0),
+                new DiskTransformCache(tempDir("talon-cache")));
+        server.start();
+        try {
+            HttpTransformCache cold = new HttpTransformCache(server.getBaseUrl(), 5000);
+            assertThat(startWithCache(cold)).isEqualTo("pass");
+            assertThat(cold.flush(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(cold.getHits()).isZero();
+            assertThat(cold.getFailures()).isZero();
+
+            HttpTransformCache warm = new HttpTransformCache(server.getBaseUrl(), 5000);
+            assertThat(startWithCache(warm)).isEqualTo("pass");
+            assertThat(warm.getHits()).isEqualTo(cold.getMisses());
+            assertThat(warm.getMisses()).isZero();
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void testHttpTransformCacheFallsBackWhenUnreachable() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        HttpTransformCache cache = new HttpTransformCache("http://localhost:" + port + "/cache/");
+        assertThat(startWithCache(cache)).isEqualTo("pass");
+        assertThat(cache.getHits()).isZero();
+        assertThat(cache.getFailures()).isGreaterThan(0);
+
+        // Enough failures trip the breaker, after which lookups don't touch the network.
+        for (int i = 0; i < 5 && !cache.isCircuitOpen(); i++) {
+            cache.get("missing");
+        }
+        assertThat(cache.isCircuitOpen()).isTrue();
+        long failures = cache.getFailures();
+        assertThat(cache.get("missing")).isNull();
+        assertThat(cache.getFailures()).isEqualTo(failures);
+    }
+
+    @Test
+    void testHttpTransformCacheEnforcesDeadline() throws Exception {
+        // Each chunk arrives well within the read timeout, but the whole response would take seconds.
+        HttpServer server = slowServer(exchange -> {
+            exchange.sendResponseHeaders(200, 1000);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int i = 0; i < 100; i++) {
+                    out.write(new byte[10]);
+                    out.flush();
+                    Thread.sleep(20);
+                }
+            } catch (IOException | InterruptedException ex) {
+                // Client gave up.
+            }
+        });
+        try {
+            HttpTransformCache cache = new HttpTransformCache(baseUrl(server), 100);
+            long start = System.nanoTime();
+            assertThat(cache.get("trickle")).isNull();
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1000);
+            assertThat(cache.getFailures()).isEqualTo(1);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void testHttpTransformCacheDeadlineCoversHeaders() throws Exception {
+        // Stalls before finishing the headers, trickling a byte at a time so that no single read times out.
+        try (ServerSocket server = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+            Thread stalling = new Thread(() -> {
+                try (Socket socket = server.accept(); OutputStream out = socket.getOutputStream()) {
+                    out.write("HTTP/1.1 200 OK\r\nX-Stall: ".getBytes(StandardCharsets.US_ASCII));
+                    for (int i = 0; i < 100; i++) {
+                        out.write('.');
+                        out.flush();
+                        Thread.sleep(20);
+                    }
+                } catch (IOException | InterruptedException ex) {
+                    // Client gave up.
+                }
+            });
+            stalling.setDaemon(true);
+            stalling.start();
+
+            String url = "http://" + server.getInetAddress().getHostAddress() + ":" + server.getLocalPort() + "/cache";
+            HttpTransformCache cache = new HttpTransformCache(url, 100);
+            long start = System.nanoTime();
+            assertThat(cache.get("stall")).isNull();
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1000);
+            assertThat(cache.getFailures()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void testHttpTransformCacheCountsSlowLookups() throws Exception {
+        HttpServer server = slowServer(exchange -> {
+            try {
+                Thread.sleep(70);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, 3);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(new byte[]{1, 2, 3});
+            }
+        });
+        try {
+            // Just inside the deadline every time, which is still too slow to be worth waiting for.
+            HttpTransformCache cache = new HttpTransformCache(baseUrl(server), 100);
+            for (int i = 0; i < 5; i++) {
+                cache.get("slow");
+            }
+            assertThat(cache.getHits()).isGreaterThan(0);
+            assertThat(cache.isCircuitOpen()).isTrue();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static HttpServer slowServer(HttpHandler handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/cache/", handler);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        return server;
+    }
+
+    private static String baseUrl(HttpServer server) {
+        return "http://localhost:" + server.getAddress().getPort() + "/cache/";
+    }
+
+    private static class IndexAwareTransformer implements Transformer, ClassIndexAware {
+        private final AtomicReference<ClassIndex> index;
+
+        private IndexAwareTransformer(AtomicReference<ClassIndex> index) {
+            this.index = index;
+        }
+
+        @Override
+        public void setClassIndex(ClassIndex index) {
+            this.index.set(index);
+        }
+
+        @Override
+        public byte[] transform(String className, String pkgName, byte[] classBytes) {
+            return null;
+        }
+    }
+
+    private static Object startWithCache(TransformCache cache) throws Exception {
+        Talon talon = new Talon("io.drakon.talon.test.examples.WithWhitelistedDeps", "test", true);
+        talon.addWhitelistedPackage(WHITELIST_DIR);
+        talon.addTransformer(new StringReplacingVisitorTransformer("hello", "pass"));
+        talon.addTransformCache(cache);
+        return talon.start();
+    }
+
 }
@@ -0,0 +1,11 @@
+package io.drakon.talon.test.examples;
+
+@Marker
+public class MarkedRunnable implements Runnable {
+
+    @Override
+    public void run() {
+        // Pass.
+    }
+
+}
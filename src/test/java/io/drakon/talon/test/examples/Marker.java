@@ -0,0 +1,8 @@
+package io.drakon.talon.test.examples;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Marker {
+}
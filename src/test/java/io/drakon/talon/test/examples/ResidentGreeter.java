@@ -0,0 +1,17 @@
+package io.drakon.talon.test.examples;
+
+import io.drakon.talon.test.shared.Greeter;
+
+public class ResidentGreeter implements Greeter {
+
+    @Override
+    public String greet(String name) {
+        return "hello " + name;
+    }
+
+    @Override
+    public long add(int a, long b) {
+        return a + b;
+    }
+
+}
@@ -0,0 +1,13 @@
+package io.drakon.talon.test.shared;
+
+public interface Greeter {
+
+    String greet(String name);
+
+    long add(int a, long b);
+
+    default String describe() {
+        return "greeter";
+    }
+
+}
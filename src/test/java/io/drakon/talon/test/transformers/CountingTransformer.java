@@ -0,0 +1,23 @@
+package io.drakon.talon.test.transformers;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.drakon.talon.Transformer;
+
+public class CountingTransformer implements Transformer {
+
+    private final Map<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+
+    @Override
+    public byte[] transform(String className, String pkgName, byte[] classBytes) {
+        counts.computeIfAbsent(pkgName + "." + className, it -> new AtomicInteger()).incrementAndGet();
+        return null;
+    }
+
+    public Map<String, AtomicInteger> getCounts() {
+        return counts;
+    }
+
+}
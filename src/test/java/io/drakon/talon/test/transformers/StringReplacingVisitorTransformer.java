@@ -0,0 +1,77 @@
+package io.drakon.talon.test.transformers;
+
+import static org.objectweb.asm.Opcodes.ASM6;
+
+import io.drakon.talon.Interest;
+import io.drakon.talon.VisitorTransformer;
+import lombok.AllArgsConstructor;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+
+@AllArgsConstructor
+public class StringReplacingVisitorTransformer implements VisitorTransformer {
+
+    private final String target;
+    private final String replacement;
+
+    @Override
+    public ClassVisitor createVisitor(String className, String pkgName, ClassVisitor next) {
+        return new ReplacingClassVisitor(target, replacement, next);
+    }
+
+    @Override
+    public int getWriterFlags() {
+        return ClassWriter.COMPUTE_FRAMES;
+    }
+
+    @Override
+    public Interest getInterest() {
+        return Interest.builder().referencedString(target).build();
+    }
+
+    @Override
+    public String getFingerprint() {
+        return "StringReplacingVisitorTransformer:1:" + target + ":" + replacement;
+    }
+
+    private static class ReplacingClassVisitor extends ClassVisitor {
+
+        private final String target;
+        private final String replacement;
+
+        private ReplacingClassVisitor(String target, String replacement, ClassVisitor cv) {
+            super(ASM6, cv);
+            this.target = target;
+            this.replacement = replacement;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            return new ReplacingMethodVisitor(target, replacement, super.visitMethod(access, name, descriptor, signature, exceptions));
+        }
+
+    }
+
+    private static class ReplacingMethodVisitor extends MethodVisitor {
+
+        private final String target;
+        private final String replacement;
+
+        private ReplacingMethodVisitor(String target, String replacement, MethodVisitor mv) {
+            super(ASM6, mv);
+            this.target = target;
+            this.replacement = replacement;
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            if (value.equals(target)) {
+                super.visitLdcInsn(replacement);
+            } else {
+                super.visitLdcInsn(value);
+            }
+        }
+    }
+
+}